@@ -0,0 +1,139 @@
+package kata;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Just enough of {@link TripRepository} for the benchmarks: trip lists held in a map.
+ */
+class InMemoryTripRepository implements TripRepository {
+
+    private final Map<Long, List<Trip>> tripsByUser = new HashMap<>();
+
+    void setTrips(Long userId, List<Trip> trips) {
+        tripsByUser.put(userId, trips);
+    }
+
+    @Override
+    public List<Trip> findTripsByUser(Long userId) {
+        return tripsByUser.getOrDefault(userId, List.of());
+    }
+
+    @Override
+    public List<Trip> findTripsByUserVisibleTo(Long userId, Long viewerId) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<Trip> findTripsByUserFromReadModel(Long userId, Long viewerId) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<Trip> findTripsByUserAfter(Long userId, Long afterTripId, int limit) {
+        return findTripsByUser(userId).stream()
+                .filter(trip -> trip.id() > afterTripId)
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    public Map<Long, List<Trip>> findTripsByUsers(Collection<Long> userIds) {
+        Map<Long, List<Trip>> trips = new HashMap<>();
+        for (Long userId : userIds) {
+            List<Trip> tripsOfUser = tripsByUser.get(userId);
+            if (tripsOfUser != null) {
+                trips.put(userId, tripsOfUser);
+            }
+        }
+        return trips;
+    }
+
+    @Override
+    public List<Trip> findTripsByUsersInOrder(long[] userIds, int limit) {
+        throw unsupported();
+    }
+
+    @Override
+    public Optional<VersionedTrips> findVersionedTripsByUser(Long userId) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<FeedEntry> findFeedEntries(long[] ownerIds, FeedCursor after, int limit) {
+        throw unsupported();
+    }
+
+    @Override
+    public Stream<Trip> streamTripsByUser(Long userId) {
+        return findTripsByUser(userId).stream();
+    }
+
+    @Override
+    public <S extends Trip> S save(S entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Trip> Iterable<S> saveAll(Iterable<S> entities) {
+        throw unsupported();
+    }
+
+    @Override
+    public Optional<Trip> findById(Long id) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        throw unsupported();
+    }
+
+    @Override
+    public Iterable<Trip> findAll() {
+        throw unsupported();
+    }
+
+    @Override
+    public Iterable<Trip> findAllById(Iterable<Long> ids) {
+        throw unsupported();
+    }
+
+    @Override
+    public long count() {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        throw unsupported();
+    }
+
+    @Override
+    public void delete(Trip entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Trip> entities) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAll() {
+        throw unsupported();
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Not needed by the benchmarks");
+    }
+}
@@ -0,0 +1,151 @@
+package kata;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Just enough of {@link UserRepository} for the benchmarks: users and friend lists held in maps,
+ * so the measured cost is the caller's, not the database's.
+ */
+class InMemoryUserRepository implements UserRepository {
+
+    private final Map<Long, User> users = new HashMap<>();
+    private final Map<Long, List<User>> friends = new HashMap<>();
+
+    void addUser(User user) {
+        users.put(user.getId(), user);
+    }
+
+    void setFriends(Long userId, List<User> friendsOfUser) {
+        friends.put(userId, friendsOfUser);
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        return Optional.ofNullable(users.get(id));
+    }
+
+    @Override
+    public List<User> findFriendsByUserId(Long userId) {
+        return friends.getOrDefault(userId, List.of());
+    }
+
+    @Override
+    public boolean existsFriendship(Long userId, Long friendId) {
+        return findFriendsByUserId(userId).stream()
+                .anyMatch(friend -> friend.getId().equals(friendId));
+    }
+
+    @Override
+    public long[] findFriendIdsByUserId(Long userId) {
+        return findFriendsByUserId(userId).stream()
+                .mapToLong(User::getId)
+                .sorted()
+                .toArray();
+    }
+
+    @Override
+    public Set<Long> findFriendIdsAmong(Long userId, Collection<Long> candidateIds) {
+        Set<Long> friendIds = new HashSet<>();
+        for (User friend : findFriendsByUserId(userId)) {
+            if (candidateIds.contains(friend.getId())) {
+                friendIds.add(friend.getId());
+            }
+        }
+        return friendIds;
+    }
+
+    @Override
+    public long[] findUserIdsWithinHops(Long userId, int maxDepth, int maxUsers) {
+        throw unsupported();
+    }
+
+    @Override
+    public Optional<Long> findTripsVersion(Long userId) {
+        return users.containsKey(userId) ? Optional.of(0L) : Optional.empty();
+    }
+
+    @Override
+    public void forEachFriendship(FriendshipConsumer consumer) {
+        friends.forEach((userId, friendsOfUser) -> friendsOfUser.forEach(friend -> consumer.accept(userId, friend.getId())));
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        throw unsupported();
+    }
+
+    @Override
+    public void insertFriendship(Long userId, Long friendId) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteFriendship(Long userId, Long friendId) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends User> S save(S entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends User> Iterable<S> saveAll(Iterable<S> entities) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return users.containsKey(id);
+    }
+
+    @Override
+    public Iterable<User> findAll() {
+        return users.values();
+    }
+
+    @Override
+    public Iterable<User> findAllById(Iterable<Long> ids) {
+        throw unsupported();
+    }
+
+    @Override
+    public long count() {
+        return users.size();
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        throw unsupported();
+    }
+
+    @Override
+    public void delete(User entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends User> entities) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteAll() {
+        throw unsupported();
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Not needed by the benchmarks");
+    }
+}
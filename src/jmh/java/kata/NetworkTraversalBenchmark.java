@@ -0,0 +1,67 @@
+package kata;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the bitset breadth-first search of {@link CompressedFriendshipGraph#usersWithin} on a
+ * synthetic graph with skewed degrees like {@code SyntheticDataGenerator} produces. The recursive
+ * CTE needs a database and is compared against it in {@code TripServiceScaleTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NetworkTraversalBenchmark {
+
+    private static final int AVERAGE_FRIENDS = 20;
+    private static final double POPULARITY_SKEW = 3.0;
+    private static final int ORIGINS = 1024;
+
+    @Param({"100000", "1000000"})
+    public int users;
+
+    @Param({"2", "3"})
+    public int depth;
+
+    @Param({"10000"})
+    public int maxUsers;
+
+    private CompressedFriendshipGraph graph;
+    private long[] origins;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        CompressedFriendshipGraph.Builder builder = CompressedFriendshipGraph.builder();
+        long friendships = (long) users * AVERAGE_FRIENDS / 2;
+        for (long i = 0; i < friendships; i++) {
+            long userId = 1 + random.nextInt(users);
+            long popularId = 1 + (long) (users * Math.pow(random.nextDouble(), POPULARITY_SKEW));
+            if (userId != popularId) {
+                builder.add(userId, popularId).add(popularId, userId);
+            }
+        }
+        graph = builder.build();
+
+        origins = new long[ORIGINS];
+        for (int i = 0; i < ORIGINS; i++) {
+            origins[i] = graph.idAt(random.nextInt(graph.nodeCount()));
+        }
+    }
+
+    @Benchmark
+    public long[] usersWithin() {
+        long origin = origins[next++ & (ORIGINS - 1)];
+        return graph.usersWithin(origin, depth, maxUsers);
+    }
+}
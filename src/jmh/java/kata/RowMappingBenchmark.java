@@ -0,0 +1,113 @@
+package kata;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * Compares the hand-mapped hot queries with the same queries mapped by Spring Data JDBC
+ * ({@link SpringDataMappedQueries}), against a Postgres container. List benchmarks return
+ * {@value #ROWS} rows and count one operation per row, so throughput and the gc profiler's
+ * {@code gc.alloc.rate.norm} read per row. Database time is part of both sides; the difference is
+ * the mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RowMappingBenchmark {
+
+    static final int ROWS = 1_000;
+
+    private PostgreSQLContainer<?> postgres;
+    private ConfigurableApplicationContext context;
+    private TripRepository tripRepository;
+    private UserRepository userRepository;
+    private SpringDataMappedQueries springDataMapped;
+    private long userId;
+    private long friendId;
+
+    @Setup
+    public void setUp() {
+        postgres = new PostgreSQLContainer<>("postgres:15");
+        postgres.start();
+        context = new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=" + postgres.getJdbcUrl(),
+                        "spring.datasource.username=" + postgres.getUsername(),
+                        "spring.datasource.password=" + postgres.getPassword(),
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=warn")
+                .run();
+        tripRepository = context.getBean(TripRepository.class);
+        userRepository = context.getBean(UserRepository.class);
+        springDataMapped = context.getBean(SpringDataMappedQueries.class);
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        userId = jdbcTemplate.queryForObject("INSERT INTO user_table (username) VALUES ('benchmark') RETURNING id", Long.class);
+        jdbcTemplate.update("INSERT INTO trip (name) SELECT 'Trip ' || g FROM generate_series(1, ?) g", ROWS);
+        jdbcTemplate.update("""
+                INSERT INTO user_trip (user_id, trip_id)
+                SELECT ?, id FROM trip ORDER BY id DESC LIMIT ?
+                """, userId, ROWS);
+        jdbcTemplate.update("INSERT INTO user_table (username) SELECT 'friend' || g FROM generate_series(1, ?) g", ROWS);
+        jdbcTemplate.update("INSERT INTO friendship (user_low, user_high) SELECT ?, id FROM user_table WHERE id > ?",
+                userId, userId);
+        friendId = userId + ROWS;
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        postgres.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Trip> tripsHandMapped() {
+        return tripRepository.findTripsByUser(userId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Trip> tripsSpringDataMapped() {
+        return springDataMapped.findTripsByUser(userId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> friendsHandMapped() {
+        return userRepository.findFriendsByUserId(userId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> friendsSpringDataMapped() {
+        return springDataMapped.findFriendsByUserId(userId);
+    }
+
+    @Benchmark
+    public boolean friendshipExistsHandMapped() {
+        return userRepository.existsFriendship(friendId, userId);
+    }
+
+    @Benchmark
+    public boolean friendshipExistsSpringDataMapped() {
+        return springDataMapped.existsFriendship(friendId, userId);
+    }
+}
@@ -0,0 +1,32 @@
+package kata;
+
+import java.util.List;
+
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * The hot queries as they were declared before they were mapped by hand, so
+ * {@link RowMappingBenchmark} can compare both. Picked up by repository scanning because it lives
+ * in the application's package.
+ */
+interface SpringDataMappedQueries extends Repository<Trip, Long> {
+
+    @Query("SELECT t.* FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = :userId")
+    List<Trip> findTripsByUser(@Param("userId") Long userId);
+
+    @Query("""
+            SELECT u.* FROM user_table u
+            JOIN (SELECT user_high AS id FROM friendship WHERE user_low = :userId
+                  UNION ALL
+                  SELECT user_low FROM friendship WHERE user_high = :userId) f ON u.id = f.id
+            """)
+    List<User> findFriendsByUserId(@Param("userId") Long userId);
+
+    @Query("""
+            SELECT EXISTS (SELECT 1 FROM friendship
+                           WHERE user_low = LEAST(:userId, :friendId) AND user_high = GREATEST(:userId, :friendId))
+            """)
+    boolean existsFriendship(@Param("userId") Long userId, @Param("friendId") Long friendId);
+}
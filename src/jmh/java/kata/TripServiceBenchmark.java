@@ -0,0 +1,126 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Measures the trip lookup hot path against in-memory repositories, from a single friend to
+ * 100k friends. The requested user is the last friend in the list (hit) or a stranger (miss), so
+ * the friend-list scan always walks the whole list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TripServiceBenchmark {
+
+    private static final int TRIPS_PER_USER = 10;
+
+    @Param({"1", "100", "10000", "100000"})
+    public int friendCount;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    @Param({"REPOSITORY", "GRAPH"})
+    public TripServiceProperties.FriendshipSource friendshipSource;
+
+    private TripService tripService;
+    private FriendshipLookup friendshipLookup;
+    private User loggedUser;
+    private User requestedUser;
+
+    @Setup
+    public void setUp() {
+        InMemoryUserRepository userRepository = new InMemoryUserRepository();
+        InMemoryTripRepository tripRepository = new InMemoryTripRepository();
+
+        loggedUser = user(1L);
+        userRepository.addUser(loggedUser);
+
+        List<User> friends = new ArrayList<>(friendCount);
+        CompressedFriendshipGraph.Builder graph = CompressedFriendshipGraph.builder();
+        for (long id = 2; id < 2 + friendCount; id++) {
+            User friend = user(id);
+            userRepository.addUser(friend);
+            friends.add(friend);
+            graph.add(loggedUser.getId(), id).add(id, loggedUser.getId());
+        }
+        userRepository.setFriends(loggedUser.getId(), friends);
+
+        User stranger = user(2L + friendCount);
+        userRepository.addUser(stranger);
+        requestedUser = hit ? friends.get(friends.size() - 1) : stranger;
+
+        List<Trip> trips = new ArrayList<>();
+        for (long id = 1; id <= TRIPS_PER_USER; id++) {
+            trips.add(new Trip(id, "Trip " + id));
+        }
+        tripRepository.setTrips(requestedUser.getId(), trips);
+
+        TripMetrics metrics = new TripMetrics(new SimpleMeterRegistry());
+        CompressedFriendshipGraph compressedGraph = graph.build();
+        friendshipLookup = switch (friendshipSource) {
+            case REPOSITORY -> new RepositoryFriendshipLookup(userRepository, metrics);
+            case GRAPH -> compressedGraph::areFriends;
+            default -> throw new IllegalArgumentException("Unsupported friendship source " + friendshipSource);
+        };
+
+        TripServiceProperties properties = new TripServiceProperties();
+        UserService userService = new UserService(userRepository,
+                () -> new CurrentUser(loggedUser.getId(), loggedUser.getUsername()), properties);
+        tripService = new TripService(tripRepository, tripRepository::findTripsByUser, userRepository, userService,
+                friendshipLookup, (userId, otherUserId) -> true, compressedGraph::usersWithin, null,
+                new NoTransactionManager(), properties, metrics);
+    }
+
+    @Benchmark
+    public List<Trip> getTripsByUser() throws UserNotLoggedInException {
+        return tripService.getTripsByUser(requestedUser);
+    }
+
+    @Benchmark
+    public boolean friendshipCheck() {
+        return friendshipLookup.areFriends(loggedUser.getId(), requestedUser.getId());
+    }
+
+    /**
+     * The in-memory repositories need no transactions.
+     */
+    private static final class NoTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        return user;
+    }
+}
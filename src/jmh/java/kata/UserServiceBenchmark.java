@@ -0,0 +1,46 @@
+package kata;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link UserService#getCurrentUser()} with the user reloaded from the repository and
+ * built from the authenticated principal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserServiceBenchmark {
+
+    @Param({"false", "true"})
+    public boolean trustPrincipal;
+
+    private UserService userService;
+
+    @Setup
+    public void setUp() {
+        User alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+
+        InMemoryUserRepository userRepository = new InMemoryUserRepository();
+        userRepository.addUser(alice);
+
+        TripServiceProperties properties = new TripServiceProperties();
+        properties.getCurrentUser().setTrustPrincipal(trustPrincipal);
+        userService = new UserService(userRepository, () -> new CurrentUser(1L, "alice"), properties);
+    }
+
+    @Benchmark
+    public User getCurrentUser() throws UserNotLoggedInException {
+        return userService.getCurrentUser();
+    }
+}
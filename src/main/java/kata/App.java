@@ -4,8 +4,14 @@ import java.io.IOException;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
-@SpringBootApplication
+// The reactive trip path builds its own R2DBC pool from the JDBC settings (ReactiveTripConfiguration).
+// Boot's would need a URL of its own and would replace the JDBC transaction manager.
+@SpringBootApplication(exclude = {R2dbcAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class})
+@ConfigurationPropertiesScan
 class App {
 
   public static void main(String[] args) throws IOException {
@@ -0,0 +1,204 @@
+package kata;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bloom filter over all friendships, one entry per pair, built from the database at startup. Sized
+ * for {@code trips.friendship-filter.expected-friendships} at the configured false-positive rate;
+ * the filter degrades, never breaks, if more friendships exist.
+ * <p>
+ * Friendships added through {@link FriendshipService} are added once the writing transaction has
+ * committed. Bloom filters cannot forget, so removed friendships stay "maybe" (correct, just no
+ * longer rejected) until the filter is rebuilt, which happens in the background after
+ * {@code rebuild-after-removals} removals, once the filter is older than {@code rebuild-interval},
+ * and after bulk imports. The rebuild interval also bounds how long a friendship written behind the
+ * application's back can be wrongly rejected.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.friendship-filter", name = "enabled", havingValue = "true")
+public class BloomFriendshipFilter implements FriendshipFilter {
+
+    private static final Executor REBUILDER = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate primaryTransaction;
+    private final TripServiceProperties.FriendshipFilterSettings settings;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicLong removalsSinceBuild = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    private volatile Bits bits;
+    private volatile Bits building;
+    private volatile Instant builtAt;
+
+    public BloomFriendshipFilter(UserRepository userRepository, PlatformTransactionManager transactionManager,
+                                 TripServiceProperties properties, TripMetrics metrics) {
+        this.userRepository = userRepository;
+        // Not read-only, so a replica that lags behind can never leave out a friendship that just committed
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.primaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.settings = properties.getFriendshipFilter();
+        rebuild();
+        metrics.monitor(this, settings.getFalsePositiveRate());
+    }
+
+    @Override
+    public boolean mightBeFriends(Long userId, Long otherUserId) {
+        if (Duration.between(builtAt, Instant.now()).compareTo(settings.getRebuildInterval()) > 0) {
+            rebuildInBackground();
+        }
+        if (bits.mightContain(Math.min(userId, otherUserId), Math.max(userId, otherUserId))) {
+            return true;
+        }
+        rejections.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Replaces the filter with one built from the database. Friendships added while it loads go into
+     * both the old and the new filter, so none is lost in the swap.
+     */
+    public void rebuild() {
+        Bits next = Bits.sizedFor(settings.getExpectedFriendships(), settings.getFalsePositiveRate());
+        building = next;
+        try {
+            primaryTransaction.executeWithoutResult(status -> userRepository.forEachFriendship((userId, friendId) -> {
+                if (userId < friendId) {
+                    next.add(userId, friendId);
+                }
+            }));
+            removalsSinceBuild.set(0);
+            bits = next;
+            builtAt = Instant.now();
+        } finally {
+            building = null;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipChanged(FriendshipChangedEvent event) {
+        long low = Math.min(event.userId(), event.friendId());
+        long high = Math.max(event.userId(), event.friendId());
+        if (event.added()) {
+            // Read before adding: a rebuild that swaps in between has then either been seen here or
+            // started its scan after the friendship was committed
+            Bits next = building;
+            bits.add(low, high);
+            if (next != null) {
+                next.add(low, high);
+            }
+        } else if (removalsSinceBuild.incrementAndGet() >= settings.getRebuildAfterRemovals()) {
+            rebuildInBackground();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipsImported(FriendshipsImportedEvent event) {
+        rebuildInBackground();
+    }
+
+    public long sizeInBytes() {
+        return bits.sizeInBytes();
+    }
+
+    /**
+     * False-positive rate expected at the current number of entries; compare with
+     * {@code trips.friendship-filter.false-positive-rate}.
+     */
+    public double estimatedFalsePositiveRate() {
+        return bits.estimatedFalsePositiveRate();
+    }
+
+    public long rejections() {
+        return rejections.get();
+    }
+
+    private void rebuildInBackground() {
+        if (rebuilding.compareAndSet(false, true)) {
+            REBUILDER.execute(() -> {
+                try {
+                    rebuild();
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * The bit array with double hashing: probe {@code i} of an entry is {@code h1 + i * h2}.
+     * Bits are set with atomic ORs so concurrent adds never lose each other's bits.
+     */
+    static final class Bits {
+
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+        private final AtomicLong entries = new AtomicLong();
+
+        private Bits(long bitCount, int hashCount) {
+            this.words = new AtomicLongArray(Math.toIntExact((bitCount + 63) / 64));
+            this.bitCount = (long) words.length() * 64;
+            this.hashCount = hashCount;
+        }
+
+        static Bits sizedFor(long expectedEntries, double falsePositiveRate) {
+            long n = Math.max(1, expectedEntries);
+            long bitCount = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+            int hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+            return new Bits(bitCount, hashCount);
+        }
+
+        void add(long low, long high) {
+            long h1 = mix(low * 0x9E3779B97F4A7C15L + high);
+            long h2 = mix(high * 0xC2B2AE3D27D4EB4FL + low) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                long mask = 1L << bit;
+                words.getAndAccumulate((int) (bit >>> 6), mask, (word, m) -> word | m);
+            }
+            entries.incrementAndGet();
+        }
+
+        boolean mightContain(long low, long high) {
+            long h1 = mix(low * 0x9E3779B97F4A7C15L + high);
+            long h2 = mix(high * 0xC2B2AE3D27D4EB4FL + low) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long sizeInBytes() {
+            return (long) words.length() * Long.BYTES;
+        }
+
+        double estimatedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashCount * entries.get() / bitCount), hashCount);
+        }
+
+        // SplitMix64 finalizer
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package kata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bulk ingestion of friendships and {@code user_trip} rows for partner onboarding.
+ * <p>
+ * Input is read line by line and streamed through the COPY protocol into a session-local staging
+ * table, which is merged into the real table every {@code trips.bulk-import.batch-size} rows and
+ * committed, so memory stays constant and a failure loses at most one batch. Rows referring to
+ * unknown users or trips and rows already present are skipped. Friendships are stored once per pair,
+ * whichever direction the input lists.
+ * <p>
+ * Imports merge into the application's own database, so they are refused with
+ * {@code trips.sharding.enabled}, where that database holds no friendships or trip assignments.
+ */
+@Service
+public class BulkImportService {
+
+    public enum Format {
+        /**
+         * Two comma-separated ids per line, e.g. {@code 1,2}. A non-numeric first line is taken as a header.
+         */
+        CSV,
+        /**
+         * One JSON object per line with the two id fields, e.g. {@code {"user_id":1,"friend_id":2}}.
+         */
+        NDJSON
+    }
+
+    private static final String MERGE_FRIENDSHIPS = """
+            INSERT INTO friendship (user_low, user_high)
+            SELECT DISTINCT LEAST(s.first_id, s.second_id), GREATEST(s.first_id, s.second_id)
+            FROM import_staging s
+            WHERE s.first_id <> s.second_id
+              AND EXISTS (SELECT 1 FROM user_table WHERE id = s.first_id)
+              AND EXISTS (SELECT 1 FROM user_table WHERE id = s.second_id)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private static final String MERGE_TRIP_ASSIGNMENTS = """
+            INSERT INTO user_trip (user_id, trip_id)
+            SELECT DISTINCT s.first_id, s.second_id FROM import_staging s
+            WHERE EXISTS (SELECT 1 FROM user_table WHERE id = s.first_id)
+              AND EXISTS (SELECT 1 FROM trip WHERE id = s.second_id)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+    private final boolean sharded;
+
+    public BulkImportService(DataSource dataSource, ObjectMapper objectMapper,
+                             ApplicationEventPublisher eventPublisher, TripServiceProperties properties) {
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = properties.getBulkImport().getBatchSize();
+        this.sharded = properties.getSharding().isEnabled();
+    }
+
+    /**
+     * Imports friendships and announces the committed ones with a {@link FriendshipsImportedEvent},
+     * also when a later batch fails, since the batches before it stay in the table.
+     */
+    public ImportResult importFriendships(Reader input, Format format) {
+        AtomicLong committed = new AtomicLong();
+        try {
+            return importRows(input, format, "user_id", "friend_id", MERGE_FRIENDSHIPS, committed::addAndGet);
+        } finally {
+            if (committed.get() > 0) {
+                eventPublisher.publishEvent(new FriendshipsImportedEvent(committed.get()));
+            }
+        }
+    }
+
+    public ImportResult importTripAssignments(Reader input, Format format) {
+        return importRows(input, format, "user_id", "trip_id", MERGE_TRIP_ASSIGNMENTS, inserted -> {
+        });
+    }
+
+    /**
+     * Reports the rows inserted by every committed batch to {@code onCommit}.
+     */
+    private ImportResult importRows(Reader input, Format format, String firstField, String secondField, String merge,
+                                    LongConsumer onCommit) {
+        if (sharded) {
+            throw new IllegalStateException("Bulk import merges into the application's own database, which holds no "
+                    + "friendships or trip assignments with trips.sharding.enabled");
+        }
+        long began = System.nanoTime();
+        long rowsRead = 0;
+        long rowsInserted = 0;
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                execute(connection, "CREATE TEMP TABLE IF NOT EXISTS import_staging (first_id BIGINT NOT NULL, second_id BIGINT NOT NULL)");
+                execute(connection, "TRUNCATE import_staging");
+                connection.commit();
+
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                LineParser parser = new LineParser(format, firstField, secondField);
+                BufferedReader lines = new BufferedReader(input);
+                boolean moreInput = true;
+                while (moreInput) {
+                    long staged;
+                    try (CopyWriter copy = new CopyWriter(copyManager.copyIn("COPY import_staging FROM STDIN"))) {
+                        moreInput = stageBatch(lines, parser, copy);
+                        copy.end();
+                        staged = copy.rows();
+                    }
+                    if (staged == 0) {
+                        break;
+                    }
+                    rowsRead += staged;
+                    int inserted;
+                    try (Statement statement = connection.createStatement()) {
+                        inserted = statement.executeUpdate(merge);
+                        statement.execute("TRUNCATE import_staging");
+                    }
+                    connection.commit();
+                    rowsInserted += inserted;
+                    onCommit.accept(inserted);
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Cleanup failures must not hide what went wrong with the import
+                try {
+                    connection.rollback();
+                    dropStaging(connection, autoCommit);
+                } catch (SQLException cleanupFailure) {
+                    e.addSuppressed(cleanupFailure);
+                }
+                throw e;
+            }
+            dropStaging(connection, autoCommit);
+        } catch (SQLException e) {
+            throw new UncategorizedSQLException("Bulk import", null, e);
+        }
+
+        return new ImportResult(rowsRead, rowsInserted, (System.nanoTime() - began) / 1_000_000);
+    }
+
+    private boolean stageBatch(BufferedReader lines, LineParser parser, CopyWriter copy) throws SQLException {
+        try {
+            String line;
+            while (copy.rows() < batchSize && (line = lines.readLine()) != null) {
+                long[] ids = parser.parse(line);
+                if (ids != null) {
+                    copy.row(ids[0], ids[1]);
+                }
+            }
+            return copy.rows() >= batchSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void dropStaging(Connection connection, boolean autoCommit) throws SQLException {
+        execute(connection, "DROP TABLE IF EXISTS import_staging");
+        connection.commit();
+        connection.setAutoCommit(autoCommit);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    public record ImportResult(long rowsRead, long rowsInserted, long elapsedMillis) {
+
+        public double rowsPerSecond() {
+            return elapsedMillis == 0 ? rowsRead * 1000.0 : rowsRead * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private final class LineParser {
+
+        private final Format format;
+        private final String firstField;
+        private final String secondField;
+        private long lineNumber;
+
+        private LineParser(Format format, String firstField, String secondField) {
+            this.format = format;
+            this.firstField = firstField;
+            this.secondField = secondField;
+        }
+
+        /**
+         * Returns the two ids on the line, or {@code null} for blank lines and a CSV header.
+         */
+        long[] parse(String line) {
+            lineNumber++;
+            if (line.isBlank()) {
+                return null;
+            }
+            try {
+                return switch (format) {
+                    case CSV -> parseCsv(line);
+                    case NDJSON -> parseJson(line);
+                };
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + " is not a valid " + format + " row: " + line, e);
+            }
+        }
+
+        private long[] parseCsv(String line) {
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("Expected two comma-separated ids");
+            }
+            String first = line.substring(0, comma).trim();
+            String second = line.substring(comma + 1).trim();
+            if (lineNumber == 1 && !first.isEmpty() && !Character.isDigit(first.charAt(0))) {
+                return null;
+            }
+            return new long[]{Long.parseLong(first), Long.parseLong(second)};
+        }
+
+        private long[] parseJson(String line) throws IOException {
+            JsonNode row = objectMapper.readTree(line);
+            JsonNode first = row.get(firstField);
+            JsonNode second = row.get(secondField);
+            if (first == null || second == null || !first.canConvertToLong() || !second.canConvertToLong()) {
+                throw new IllegalArgumentException("Expected numeric " + firstField + " and " + secondField);
+            }
+            return new long[]{first.asLong(), second.asLong()};
+        }
+    }
+}
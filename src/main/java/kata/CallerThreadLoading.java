@@ -0,0 +1,55 @@
+package kata;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Reads through the caches on the trip lookup path, {@link FriendCache} and {@link TripListCache}.
+ * <p>
+ * A missing entry is loaded on the thread of the first caller asking for it, outside the cache's
+ * internal locks; callers arriving meanwhile wait for that load, so a virtual thread never pins
+ * its carrier and no load needs a thread or connection beyond the caller's own.
+ * <p>
+ * Inside a transaction, which already holds a connection, a caller never waits for someone else's
+ * load, since that load may be waiting for a connection itself. A cached entry is used if it is
+ * ready; otherwise the value is read in the caller's transaction and returned without being
+ * cached, as that transaction may read from a replica.
+ */
+final class CallerThreadLoading {
+
+    private CallerThreadLoading() {
+    }
+
+    static <K, V> V get(AsyncCache<K, V> cache, K key, Function<K, V> loader) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            CompletableFuture<V> cached = cache.getIfPresent(key);
+            if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+                return cached.join();
+            }
+            return loader.apply(key);
+        }
+
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> entry = cache.get(key, (id, executor) -> loading);
+        if (entry == loading) {
+            try {
+                loading.complete(loader.apply(key));
+            } catch (RuntimeException | Error e) {
+                loading.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return entry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable friendship adjacency in compressed sparse row layout.
+ * <p>
+ * Every user id that appears in an edge is assigned a dense index by its position in the sorted
+ * {@code nodeIds} array. The friends of node {@code i} are the node indexes
+ * {@code neighbors[offsets[i]]} to {@code neighbors[offsets[i + 1] - 1]}, sorted ascending, so
+ * {@link #areFriends(long, long)} is two binary searches over {@code nodeIds} and one over the
+ * friend slice: O(log users + log degree), no allocation.
+ * <p>
+ * Memory: 4 bytes per directed edge (each friendship is two) plus 12 bytes per user. With an
+ * average degree of 6 or more that is at most {@value #BYTES_PER_EDGE_BUDGET} bytes per edge, i.e.
+ * under 60 MB at 10M edges. Building needs about 32 bytes per edge of
+ * transient heap on top of that.
+ */
+public final class CompressedFriendshipGraph {
+
+    public static final int BYTES_PER_EDGE_BUDGET = 6;
+
+    private static final CompressedFriendshipGraph EMPTY = new CompressedFriendshipGraph(new long[0], new int[1], new int[0]);
+
+    private static final Comparator<long[]> EDGE_ORDER = Comparator
+            .<long[]>comparingLong(edge -> edge[0])
+            .thenComparingLong(edge -> edge[1]);
+
+    private final long[] nodeIds;
+    private final int[] offsets;
+    private final int[] neighbors;
+
+    private CompressedFriendshipGraph(long[] nodeIds, int[] offsets, int[] neighbors) {
+        this.nodeIds = nodeIds;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+    }
+
+    public static CompressedFriendshipGraph empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder(1024);
+    }
+
+    public boolean areFriends(long userId, long friendId) {
+        int user = indexOf(userId);
+        if (user < 0) {
+            return false;
+        }
+        int friend = indexOf(friendId);
+        if (friend < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(neighbors, offsets[user], offsets[user + 1], friend) >= 0;
+    }
+
+    /**
+     * Breadth-first search from the given user: ids of at most {@code maxUsers} users within
+     * {@code maxDepth} hops, nearest first, excluding the user themselves. A bit per node marks
+     * visited users, so every user is expanded at most once however many paths lead to them.
+     */
+    public long[] usersWithin(long userId, int maxDepth, int maxUsers) {
+        int start = indexOf(userId);
+        if (start < 0 || maxDepth < 1 || maxUsers < 1) {
+            return new long[0];
+        }
+
+        BitSet visited = new BitSet(nodeIds.length);
+        visited.set(start);
+        int[] reached = new int[Math.min(maxUsers, nodeIds.length - 1)];
+        int count = expand(start, visited, reached, 0);
+        int levelStart = 0;
+        for (int depth = 2; depth <= maxDepth && count < reached.length; depth++) {
+            int levelEnd = count;
+            if (levelStart == levelEnd) {
+                break;
+            }
+            for (int i = levelStart; i < levelEnd && count < reached.length; i++) {
+                count = expand(reached[i], visited, reached, count);
+            }
+            levelStart = levelEnd;
+        }
+
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nodeIds[reached[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Appends the node's unvisited friends to {@code reached} until it is full; returns the new count.
+     */
+    private int expand(int node, BitSet visited, int[] reached, int count) {
+        for (int edge = offsets[node]; edge < offsets[node + 1] && count < reached.length; edge++) {
+            int friend = neighbors[edge];
+            if (!visited.get(friend)) {
+                visited.set(friend);
+                reached[count++] = friend;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * {@link #usersWithin(long, int, int)} over this graph with the given directed edges added and
+     * removed, as {@link #with(long[][], long[][])} would return it, without building that graph.
+     * Meant for a handful of pending edges: visited users are tracked by id instead of a bit per node.
+     */
+    public long[] usersWithin(long userId, int maxDepth, int maxUsers, long[][] additions, long[][] removals) {
+        if (additions.length == 0 && removals.length == 0) {
+            return usersWithin(userId, maxDepth, maxUsers);
+        }
+        if (maxDepth < 1 || maxUsers < 1) {
+            return new long[0];
+        }
+
+        long[][] sortedRemovals = removals.clone();
+        Arrays.sort(sortedRemovals, EDGE_ORDER);
+        Map<Long, List<Long>> addedFriends = new HashMap<>();
+        for (long[] edge : additions) {
+            if (!isListed(sortedRemovals, edge[0], edge[1])) {
+                addedFriends.computeIfAbsent(edge[0], id -> new ArrayList<>()).add(edge[1]);
+            }
+        }
+
+        Set<Long> visited = new HashSet<>();
+        visited.add(userId);
+        long[] reached = new long[Math.min(maxUsers, nodeIds.length + additions.length)];
+        int count = expand(userId, sortedRemovals, addedFriends, visited, reached, 0);
+        int levelStart = 0;
+        for (int depth = 2; depth <= maxDepth && count < reached.length; depth++) {
+            int levelEnd = count;
+            if (levelStart == levelEnd) {
+                break;
+            }
+            for (int i = levelStart; i < levelEnd && count < reached.length; i++) {
+                count = expand(reached[i], sortedRemovals, addedFriends, visited, reached, count);
+            }
+            levelStart = levelEnd;
+        }
+        return Arrays.copyOf(reached, count);
+    }
+
+    private int expand(long userId, long[][] sortedRemovals, Map<Long, List<Long>> addedFriends,
+                       Set<Long> visited, long[] reached, int count) {
+        int node = indexOf(userId);
+        if (node >= 0) {
+            for (int edge = offsets[node]; edge < offsets[node + 1] && count < reached.length; edge++) {
+                long friendId = nodeIds[neighbors[edge]];
+                if (!isListed(sortedRemovals, userId, friendId) && visited.add(friendId)) {
+                    reached[count++] = friendId;
+                }
+            }
+        }
+        for (long friendId : addedFriends.getOrDefault(userId, List.of())) {
+            if (count < reached.length && visited.add(friendId)) {
+                reached[count++] = friendId;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Dense index of the given user, or a negative number if the user has no edges.
+     */
+    public int indexOf(long userId) {
+        return Arrays.binarySearch(nodeIds, userId);
+    }
+
+    public long idAt(int index) {
+        return nodeIds[index];
+    }
+
+    public int nodeCount() {
+        return nodeIds.length;
+    }
+
+    public int edgeCount() {
+        return neighbors.length;
+    }
+
+    public long estimatedSizeInBytes() {
+        return 8L * nodeIds.length + 4L * offsets.length + 4L * neighbors.length;
+    }
+
+    /**
+     * Returns a new graph with the given directed edges, each a {@code {userId, friendId}} pair,
+     * added and removed. Removals win over additions of the same edge.
+     */
+    public CompressedFriendshipGraph with(long[][] additions, long[][] removals) {
+        long[][] sortedRemovals = removals.clone();
+        Arrays.sort(sortedRemovals, EDGE_ORDER);
+
+        Builder builder = new Builder(neighbors.length + additions.length);
+        for (int node = 0; node < nodeIds.length; node++) {
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                long userId = nodeIds[node];
+                long friendId = nodeIds[neighbors[i]];
+                if (!isListed(sortedRemovals, userId, friendId)) {
+                    builder.add(userId, friendId);
+                }
+            }
+        }
+        for (long[] edge : additions) {
+            if (!isListed(sortedRemovals, edge[0], edge[1])) {
+                builder.add(edge[0], edge[1]);
+            }
+        }
+        return builder.build();
+    }
+
+    private static boolean isListed(long[][] sortedEdges, long userId, long friendId) {
+        int low = 0;
+        int high = sortedEdges.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] edge = sortedEdges[mid];
+            int comparison = edge[0] != userId ? Long.compare(edge[0], userId) : Long.compare(edge[1], friendId);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects directed edges in any order; duplicates are dropped by {@link #build()}.
+     */
+    public static final class Builder {
+
+        private long[] userIds;
+        private long[] friendIds;
+        private int size;
+
+        private Builder(int initialCapacity) {
+            userIds = new long[Math.max(initialCapacity, 16)];
+            friendIds = new long[userIds.length];
+        }
+
+        public Builder add(long userId, long friendId) {
+            if (size == userIds.length) {
+                userIds = Arrays.copyOf(userIds, size * 2);
+                friendIds = Arrays.copyOf(friendIds, size * 2);
+            }
+            userIds[size] = userId;
+            friendIds[size] = friendId;
+            size++;
+            return this;
+        }
+
+        public CompressedFriendshipGraph build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            long[] nodeIds = distinctSorted();
+
+            int[] offsets = new int[nodeIds.length + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[Arrays.binarySearch(nodeIds, userIds[i]) + 1]++;
+            }
+            for (int node = 0; node < nodeIds.length; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+
+            int[] neighbors = new int[size];
+            int[] fill = Arrays.copyOf(offsets, nodeIds.length);
+            for (int i = 0; i < size; i++) {
+                int user = Arrays.binarySearch(nodeIds, userIds[i]);
+                neighbors[fill[user]++] = Arrays.binarySearch(nodeIds, friendIds[i]);
+            }
+
+            return dropDuplicates(nodeIds, offsets, neighbors);
+        }
+
+        private long[] distinctSorted() {
+            long[] ids = new long[size * 2];
+            System.arraycopy(userIds, 0, ids, 0, size);
+            System.arraycopy(friendIds, 0, ids, size, size);
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, distinct);
+        }
+
+        private static CompressedFriendshipGraph dropDuplicates(long[] nodeIds, int[] offsets, int[] neighbors) {
+            int[] compactedOffsets = new int[offsets.length];
+            int written = 0;
+            for (int node = 0; node < nodeIds.length; node++) {
+                int from = offsets[node];
+                int to = offsets[node + 1];
+                Arrays.sort(neighbors, from, to);
+                int previous = -1;
+                for (int i = from; i < to; i++) {
+                    int neighbor = neighbors[i];
+                    if (neighbor != previous) {
+                        neighbors[written++] = neighbor;
+                        previous = neighbor;
+                    }
+                }
+                compactedOffsets[node + 1] = written;
+            }
+            int[] compactedNeighbors = written == neighbors.length ? neighbors : Arrays.copyOf(neighbors, written);
+            return new CompressedFriendshipGraph(nodeIds, compactedOffsets, compactedNeighbors);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package kata;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Buffers rows in PostgreSQL COPY text format and hands them to the server in large chunks, so
+ * bulk loads use constant memory however many rows they write. Values must not contain tabs,
+ * newlines or backslashes.
+ * <p>
+ * Rows only reach the table once {@link #end()} is called; closing the writer without it cancels
+ * the COPY, so a failure halfway through a batch leaves nothing of it behind.
+ */
+class CopyWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final CopyIn copyIn;
+    private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 256);
+    private long rows;
+
+    CopyWriter(CopyIn copyIn) {
+        this.copyIn = copyIn;
+    }
+
+    void row(Object... columns) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                buffer.append('\t');
+            }
+            buffer.append(columns[i]);
+        }
+        buffer.append('\n');
+        rows++;
+        if (buffer.length() >= BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    void row(long first, long second) throws SQLException {
+        buffer.append(first).append('\t').append(second).append('\n');
+        rows++;
+        if (buffer.length() >= BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    private void flush() throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Sends the remaining rows and completes the COPY.
+     */
+    void end() throws SQLException {
+        flush();
+        copyIn.endCopy();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+}
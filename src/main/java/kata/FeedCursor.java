@@ -0,0 +1,10 @@
+package kata;
+
+import java.time.LocalDateTime;
+
+/**
+ * Position of the last entry on a feed page; the next page starts strictly after it in
+ * {@link FeedEntry#NEWEST_FIRST} order.
+ */
+public record FeedCursor(LocalDateTime createdAt, Long tripId, Long ownerId) {
+}
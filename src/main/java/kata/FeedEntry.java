@@ -0,0 +1,25 @@
+package kata;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+/**
+ * One trip in the logged-in user's feed, attributed to the friend it belongs to. A trip shared by
+ * several friends appears once per friend.
+ */
+public record FeedEntry(Long ownerId, Trip trip, LocalDateTime createdAt) {
+
+    /**
+     * Feed order: newest first, then by trip id and owner id, both descending, so every entry has a
+     * distinct position.
+     */
+    public static final Comparator<FeedEntry> NEWEST_FIRST = Comparator
+            .comparing(FeedEntry::createdAt)
+            .thenComparing(entry -> entry.trip().id())
+            .thenComparing(FeedEntry::ownerId)
+            .reversed();
+
+    public FeedCursor cursor() {
+        return new FeedCursor(createdAt, trip.id(), ownerId);
+    }
+}
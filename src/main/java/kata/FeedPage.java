@@ -0,0 +1,14 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * One page of the friends' trip feed, newest first. {@code nextCursor} is passed back to fetch the
+ * following page and is {@code null} on the last page.
+ */
+public record FeedPage(List<FeedEntry> entries, FeedCursor nextCursor) {
+
+    public static FeedPage empty() {
+        return new FeedPage(List.of(), null);
+    }
+}
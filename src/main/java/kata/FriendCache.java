@@ -0,0 +1,76 @@
+package kata;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Caches each user's friend ids as a {@link FriendIdSet}, bounded by the total number of ids held
+ * and by time to live. Friendships written through {@link FriendshipService} invalidate both users
+ * once the writing transaction has committed; rows written behind the application's back are only
+ * picked up when the entry expires.
+ * <p>
+ * Friend lists are loaded on the calling thread, see {@link CallerThreadLoading}. Outside a
+ * transaction the load is a query of its own on the primary.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips", name = "friendship-source", havingValue = "cache")
+public class FriendCache implements FriendshipLookup {
+
+    private final AsyncCache<Long, FriendIdSet> cache;
+    private final UserRepository userRepository;
+    private final TripMetrics metrics;
+
+    public FriendCache(UserRepository userRepository, TripServiceProperties properties, TripMetrics metrics) {
+        TripServiceProperties.FriendCacheSettings settings = properties.getFriendCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(settings.getMaximumFriendIds())
+                .weigher((Long userId, FriendIdSet friendIds) -> friendIds.size() + 1)
+                .expireAfterWrite(settings.getTimeToLive())
+                .recordStats()
+                .buildAsync();
+        this.userRepository = userRepository;
+        this.metrics = metrics;
+        metrics.monitor(cache.synchronous(), "friends");
+    }
+
+    @Override
+    public boolean areFriends(Long userId, Long otherUserId) {
+        FriendIdSet friendIds = friendIdsOf(userId);
+        metrics.recordFriendListSize(friendIds.size());
+        return friendIds.contains(otherUserId);
+    }
+
+    public FriendIdSet friendIdsOf(Long userId) {
+        return CallerThreadLoading.get(cache, userId, id -> FriendIdSet.ofSorted(userRepository.findFriendIdsByUserId(id)));
+    }
+
+    public void invalidate(Long userId) {
+        cache.synchronous().invalidate(userId);
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipChanged(FriendshipChangedEvent event) {
+        invalidate(event.userId());
+        invalidate(event.friendId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipsImported(FriendshipsImportedEvent event) {
+        invalidateAll();
+    }
+
+    /**
+     * Hit, miss, load and eviction counters since startup.
+     */
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+}
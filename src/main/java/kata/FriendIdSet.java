@@ -0,0 +1,31 @@
+package kata;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of friend ids held as a sorted {@code long[]}, so a cached friend list costs
+ * eight bytes per friend and no boxed {@code Long} or {@code User} objects.
+ */
+public final class FriendIdSet {
+
+    private final long[] sortedIds;
+
+    private FriendIdSet(long[] sortedIds) {
+        this.sortedIds = sortedIds;
+    }
+
+    /**
+     * Wraps the given ids without copying. The array must be sorted ascending and free of duplicates.
+     */
+    public static FriendIdSet ofSorted(long[] sortedIds) {
+        return new FriendIdSet(sortedIds);
+    }
+
+    public boolean contains(long id) {
+        return Arrays.binarySearch(sortedIds, id) >= 0;
+    }
+
+    public int size() {
+        return sortedIds.length;
+    }
+}
@@ -0,0 +1,8 @@
+package kata;
+
+/**
+ * Published by {@link FriendshipService} whenever a friendship is written through the application,
+ * so in-memory friendship structures can drop or patch what they hold for both users.
+ */
+public record FriendshipChangedEvent(Long userId, Long friendId, boolean added) {
+}
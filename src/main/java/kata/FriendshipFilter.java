@@ -0,0 +1,13 @@
+package kata;
+
+/**
+ * Cheap in-memory pre-check in front of the friendship lookups. May answer "maybe" for users who
+ * are not friends, but never "no" for users who are.
+ */
+public interface FriendshipFilter {
+
+    /**
+     * {@code false} only if the two users are definitely not friends.
+     */
+    boolean mightBeFriends(Long userId, Long otherUserId);
+}
@@ -0,0 +1,133 @@
+package kata;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Holds all friendships in memory, once per direction, as a {@link CompressedFriendshipGraph}, loaded at
+ * startup. Friendships written through {@link FriendshipService} are applied to a small overlay of
+ * added and removed edges which is merged into a fresh compressed graph once it reaches
+ * {@code trips.friendship-graph.compaction-threshold} edges.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips", name = "friendship-source", havingValue = "graph")
+public class FriendshipGraph implements FriendshipLookup {
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate primaryTransaction;
+    private final int compactionThreshold;
+
+    private final Set<Edge> added = ConcurrentHashMap.newKeySet();
+    private final Set<Edge> removed = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private volatile CompressedFriendshipGraph graph;
+
+    public FriendshipGraph(UserRepository userRepository, PlatformTransactionManager transactionManager,
+                           TripServiceProperties properties) {
+        this.userRepository = userRepository;
+        // Loads read from the primary: a lagging replica would miss friendships whose changes were already applied
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.primaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.compactionThreshold = properties.getFriendshipGraph().getCompactionThreshold();
+        this.graph = load();
+    }
+
+    @Override
+    public boolean areFriends(Long userId, Long otherUserId) {
+        if (!removed.isEmpty() || !added.isEmpty()) {
+            Edge edge = new Edge(userId, otherUserId);
+            if (removed.contains(edge)) {
+                return false;
+            }
+            if (added.contains(edge)) {
+                return true;
+            }
+        }
+        return graph.areFriends(userId, otherUserId);
+    }
+
+    /**
+     * Breadth-first search over the compressed graph and the pending changes, see
+     * {@link CompressedFriendshipGraph#usersWithin(long, int, int, long[][], long[][])}.
+     */
+    public long[] usersWithin(long userId, int maxDepth, int maxUsers) {
+        // Pending changes are read before the graph: a compaction in between leaves them in both, which is harmless
+        long[][] additions = toPairs(added);
+        long[][] removals = toPairs(removed);
+        return graph.usersWithin(userId, maxDepth, maxUsers, additions, removals);
+    }
+
+    /**
+     * Replaces the in-memory graph with a fresh load from the database, dropping pending changes.
+     */
+    public void reload() {
+        compactionLock.lock();
+        try {
+            CompressedFriendshipGraph reloaded = load();
+            added.clear();
+            removed.clear();
+            graph = reloaded;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipChanged(FriendshipChangedEvent event) {
+        for (Edge edge : List.of(new Edge(event.userId(), event.friendId()), new Edge(event.friendId(), event.userId()))) {
+            if (event.added()) {
+                removed.remove(edge);
+                added.add(edge);
+            } else {
+                added.remove(edge);
+                removed.add(edge);
+            }
+        }
+        if (added.size() + removed.size() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipsImported(FriendshipsImportedEvent event) {
+        reload();
+    }
+
+    private void compact() {
+        compactionLock.lock();
+        try {
+            Set<Edge> mergedAdditions = Set.copyOf(added);
+            Set<Edge> mergedRemovals = Set.copyOf(removed);
+            graph = graph.with(toPairs(mergedAdditions), toPairs(mergedRemovals));
+            added.removeAll(mergedAdditions);
+            removed.removeAll(mergedRemovals);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private CompressedFriendshipGraph load() {
+        CompressedFriendshipGraph.Builder builder = CompressedFriendshipGraph.builder();
+        primaryTransaction.executeWithoutResult(status -> userRepository.forEachFriendship(builder::add));
+        return builder.build();
+    }
+
+    private static long[][] toPairs(Set<Edge> edges) {
+        return edges.stream()
+                .map(edge -> new long[]{edge.userId(), edge.friendId()})
+                .toArray(long[][]::new);
+    }
+
+    private record Edge(long userId, long friendId) {
+    }
+}
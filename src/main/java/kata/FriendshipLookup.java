@@ -0,0 +1,10 @@
+package kata;
+
+/**
+ * Answers whether one user has another in their friend list.
+ * Which implementation backs {@link TripService} is chosen with {@code trips.friendship-source}.
+ */
+public interface FriendshipLookup {
+
+    boolean areFriends(Long userId, Long otherUserId);
+}
@@ -0,0 +1,33 @@
+package kata;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * The application's write path for friendships. Each friendship is one canonical {@code friendship}
+ * row, read in both directions through the {@code user_friends} view.
+ */
+@Service
+public class FriendshipService {
+
+    private final UserRepository userRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public FriendshipService(UserRepository userRepository, ApplicationEventPublisher eventPublisher) {
+        this.userRepository = userRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Transactional
+    public void addFriendship(Long userId, Long friendId) {
+        userRepository.insertFriendship(userId, friendId);
+        eventPublisher.publishEvent(new FriendshipChangedEvent(userId, friendId, true));
+    }
+
+    @Transactional
+    public void removeFriendship(Long userId, Long friendId) {
+        userRepository.deleteFriendship(userId, friendId);
+        eventPublisher.publishEvent(new FriendshipChangedEvent(userId, friendId, false));
+    }
+}
@@ -0,0 +1,8 @@
+package kata;
+
+/**
+ * Published by {@link BulkImportService} after friendships were bulk-loaded, so in-memory
+ * friendship structures can rebuild instead of patching edge by edge.
+ */
+public record FriendshipsImportedEvent(long rowsInserted) {
+}
@@ -0,0 +1,24 @@
+package kata;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Walks the network breadth-first over the in-memory {@link FriendshipGraph}, stopping as soon as
+ * enough users are found. Needs {@code trips.friendship-source=graph}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.network", name = "traversal", havingValue = "graph")
+public class GraphNetworkTraversal implements NetworkTraversal {
+
+    private final FriendshipGraph friendshipGraph;
+
+    public GraphNetworkTraversal(FriendshipGraph friendshipGraph) {
+        this.friendshipGraph = friendshipGraph;
+    }
+
+    @Override
+    public long[] usersWithin(Long userId, int maxDepth, int maxUsers) {
+        return friendshipGraph.usersWithin(userId, maxDepth, maxUsers);
+    }
+}
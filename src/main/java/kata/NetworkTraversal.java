@@ -0,0 +1,13 @@
+package kata;
+
+/**
+ * Finds the users in someone's friendship network, for {@link TripService#getNetworkTrips(int, int)}.
+ */
+public interface NetworkTraversal {
+
+    /**
+     * Ids of at most {@code maxUsers} users within {@code maxDepth} friendship hops of the given
+     * user, nearest first, excluding the user themselves. Friends are one hop away.
+     */
+    long[] usersWithin(Long userId, int maxDepth, int maxUsers);
+}
@@ -0,0 +1,243 @@
+package kata;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Backs {@link TripServiceProperties.LookupMode#PARALLEL}: fetches a user's trips on a virtual thread
+ * while the caller checks the friendship, so a friend's lookup takes as long as the slower of the two
+ * instead of both. The check runs outside any transaction, the {@link FriendshipLookup} opening its
+ * own if it queries the database, and the fetch in a read-only transaction of its own, so neither
+ * holds a connection while waiting for the other or for a cache load.
+ * <p>
+ * If the check fails the fetch is cancelled. A fetch that has not started yet never runs, a running
+ * query is cancelled on the server, and trips that already arrived are thrown away. A connection
+ * a cancel was sent on goes back to the pool only once the cancel can no longer hit a later query.
+ * {@link TripMetrics} records the latency the overlap saved and the database time spent on fetches
+ * that were not used.
+ * <p>
+ * With sharding the trip query runs on a shard's pool rather than in the fork's transaction, so it
+ * cannot be cancelled and runs to completion before its result is discarded. With the
+ * {@link TripListCache} the fetch runs outside a transaction, as the cache's loads need, and is not
+ * cancelled either: the list it loads is kept for later lookups.
+ */
+@Component
+public class ParallelTripLookup {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelTripLookup.class);
+
+    private static final Executor FETCHER = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final TripListLookup tripListLookup;
+    private final DataSource dataSource;
+    private final TransactionTemplate readOnlyTransaction;
+    private final TripMetrics metrics;
+
+    public ParallelTripLookup(TripListLookup tripListLookup, DataSource dataSource,
+                              PlatformTransactionManager transactionManager, TripMetrics metrics) {
+        this.tripListLookup = tripListLookup;
+        this.dataSource = dataSource;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the user's trips if {@code friendshipCheck}, run on the calling thread, passes, and an
+     * empty list otherwise. Called inside a transaction, which already holds a connection, the check
+     * and the fetch run one after the other on the calling thread instead.
+     */
+    public List<Trip> tripsIfFriends(Long userId, BooleanSupplier friendshipCheck) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return friendshipCheck.getAsBoolean() ? tripListLookup.tripsOf(userId) : new ArrayList<>();
+        }
+
+        TripFetch fetch = new TripFetch(userId);
+        CompletableFuture<List<Trip>> trips = CompletableFuture.supplyAsync(fetch::run, FETCHER);
+
+        long checkStarted = System.nanoTime();
+        boolean friends;
+        try {
+            friends = friendshipCheck.getAsBoolean();
+        } catch (RuntimeException e) {
+            fetch.cancel();
+            throw e;
+        }
+        long checkNanos = System.nanoTime() - checkStarted;
+
+        if (!friends) {
+            fetch.cancel();
+            return new ArrayList<>();
+        }
+        try {
+            List<Trip> result = trips.join();
+            metrics.recordParallelTripFetch("used", fetch.nanos());
+            metrics.recordParallelOverlap(Math.min(checkNanos, fetch.nanos()));
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * One forked trip fetch. Whichever of the fetch finishing and the cancellation comes second
+     * records how a fetch that was not used ended.
+     */
+    private final class TripFetch {
+
+        // A ReentrantLock rather than synchronized, so a virtual thread waiting for it does not pin its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Long userId;
+
+        private boolean finished;
+        private boolean failed;
+        private boolean cancelled;
+        private boolean cancelSent;
+        private Connection connection;
+        private long nanos;
+
+        TripFetch(Long userId) {
+            this.userId = userId;
+        }
+
+        List<Trip> run() {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    metrics.recordParallelTripFetch("skipped", 0);
+                    return List.of();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long began = System.nanoTime();
+            try {
+                if (tripListLookup instanceof TripListCache) {
+                    return tripListLookup.tripsOf(userId);
+                }
+                return readOnlyTransaction.execute(status -> {
+                    Connection connection = ((ConnectionHolder) TransactionSynchronizationManager.getResource(dataSource)).getConnection();
+                    if (!queryStarting(connection)) {
+                        return List.<Trip>of();
+                    }
+                    try {
+                        return tripListLookup.tripsOf(userId);
+                    } finally {
+                        if (queryFinished()) {
+                            status.setRollbackOnly();
+                            absorbCancel(connection);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            } finally {
+                finish(System.nanoTime() - began);
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                if (finished) {
+                    metrics.recordParallelTripFetch("discarded", nanos);
+                } else if (connection != null) {
+                    cancelSent = true;
+                    connection.unwrap(PGConnection.class).cancelQuery();
+                }
+            } catch (SQLException e) {
+                log.debug("Could not cancel the trip query for user {}", userId, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long nanos() {
+            lock.lock();
+            try {
+                return nanos;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Makes the trip query on the connection cancellable. Returns whether the fetch should go ahead.
+         */
+        private boolean queryStarting(Connection connection) {
+            lock.lock();
+            try {
+                this.connection = connection;
+                return !cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stops cancelling queries on the connection, waiting for a cancel in progress to be
+         * delivered. Returns whether one was sent.
+         */
+        private boolean queryFinished() {
+            lock.lock();
+            try {
+                this.connection = null;
+                return cancelSent;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * The server may act on a cancel request only after the query it was meant for has
+         * finished. One more round trip gives it the chance to do so on this fetch's own statement
+         * rather than on a later borrower's.
+         */
+        private void absorbCancel(Connection connection) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT 1");
+            } catch (SQLException e) {
+                log.debug("Round trip after cancelling the trip query for user {} failed", userId, e);
+            }
+        }
+
+        private void finish(long nanos) {
+            lock.lock();
+            try {
+                this.finished = true;
+                this.connection = null;
+                this.nanos = nanos;
+                if (cancelled) {
+                    metrics.recordParallelTripFetch(failed ? "cancelled" : "discarded", nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
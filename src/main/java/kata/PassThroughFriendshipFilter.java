@@ -0,0 +1,17 @@
+package kata;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Used while {@code trips.friendship-filter.enabled} is off: every check goes to the friendship lookup.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.friendship-filter", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class PassThroughFriendshipFilter implements FriendshipFilter {
+
+    @Override
+    public boolean mightBeFriends(Long userId, Long otherUserId) {
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package kata;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+/**
+ * Sets up {@link ReactiveTripService} when {@code trips.reactive.enabled} is set. Its R2DBC pool
+ * connects to the same database as the JDBC pool, with the same credentials; only
+ * {@code trips.reactive.max-connections} is configured separately.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "trips.reactive", name = "enabled", havingValue = "true")
+public class ReactiveTripConfiguration {
+
+    @Bean(destroyMethod = "dispose")
+    ConnectionPool reactiveConnectionPool(TripServiceProperties properties, DataSourceProperties dataSourceProperties,
+                                          ObjectProvider<JdbcConnectionDetails> connectionDetails) {
+        JdbcConnectionDetails details = connectionDetails.getIfAvailable();
+        String jdbcUrl = details != null ? details.getJdbcUrl() : dataSourceProperties.determineUrl();
+        String username = details != null ? details.getUsername() : dataSourceProperties.determineUsername();
+        String password = details != null ? details.getPassword() : dataSourceProperties.determinePassword();
+
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(r2dbcUrlOf(jdbcUrl)).mutate();
+        if (username != null) {
+            options.option(ConnectionFactoryOptions.USER, username);
+        }
+        if (password != null) {
+            options.option(ConnectionFactoryOptions.PASSWORD, password);
+        }
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+                .name("reactive")
+                .maxSize(properties.getReactive().getMaxConnections())
+                .build());
+    }
+
+    @Bean
+    ReactiveTripService reactiveTripService(ConnectionPool reactiveConnectionPool, TripServiceProperties properties,
+                                            AuthenticationFacade authenticationFacade) {
+        DatabaseClient databaseClient = DatabaseClient.create(reactiveConnectionPool);
+        return new ReactiveTripService(
+                new ReactiveTripRepository(databaseClient, properties.getReactive().getFetchSize()),
+                new ReactiveUserRepository(databaseClient),
+                authenticationFacade);
+    }
+
+    /**
+     * {@code jdbc:postgresql://host:port/database?options} becomes
+     * {@code r2dbc:postgresql://host:port/database}; the JDBC driver's options do not carry over.
+     */
+    static String r2dbcUrlOf(String jdbcUrl) {
+        if (jdbcUrl == null || !jdbcUrl.startsWith("jdbc:postgresql://")) {
+            throw new IllegalStateException("trips.reactive needs a jdbc:postgresql:// URL, got " + jdbcUrl);
+        }
+        int options = jdbcUrl.indexOf('?');
+        String withoutOptions = options < 0 ? jdbcUrl : jdbcUrl.substring(0, options);
+        return "r2dbc:" + withoutOptions.substring("jdbc:".length());
+    }
+}
@@ -0,0 +1,31 @@
+package kata;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+/**
+ * Non-blocking counterpart of {@link TripRepository#findTripsByUser(Long)} over R2DBC, mapped by
+ * hand like the JDBC query.
+ */
+public class ReactiveTripRepository {
+
+    private final DatabaseClient databaseClient;
+    private final int fetchSize;
+
+    public ReactiveTripRepository(DatabaseClient databaseClient, int fetchSize) {
+        this.databaseClient = databaseClient;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Streams the user's trips. Rows are fetched {@code fetchSize} at a time as the subscriber
+     * requests them, so a slow subscriber holds the query open instead of having it buffered.
+     */
+    public Flux<Trip> findTripsByUser(Long userId) {
+        return databaseClient.sql("SELECT t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = :userId")
+                .bind("userId", userId)
+                .filter((statement, next) -> next.execute(statement.fetchSize(fetchSize)))
+                .map(row -> new Trip(row.get(0, Long.class), row.get(1, String.class)))
+                .all();
+    }
+}
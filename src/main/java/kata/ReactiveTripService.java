@@ -0,0 +1,55 @@
+package kata;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link TripService#getTripsByUser(User)} for callers that run on an
+ * event loop, such as an edge gateway. It checks friendships against the friend list like the
+ * default {@code FRIEND_LIST} lookup, over R2DBC instead of JDBC.
+ * <p>
+ * The friend list and the trips are queried at the same time. Trips are passed on only once the
+ * friendship is confirmed, and the trip query is cancelled as soon as it is ruled out. The logged-in
+ * user is taken from the principal without being loaded, as with
+ * {@code trips.current-user.trust-principal}.
+ */
+public class ReactiveTripService {
+
+    private final ReactiveTripRepository tripRepository;
+    private final ReactiveUserRepository userRepository;
+    private final AuthenticationFacade authenticationFacade;
+
+    public ReactiveTripService(ReactiveTripRepository tripRepository, ReactiveUserRepository userRepository,
+                               AuthenticationFacade authenticationFacade) {
+        this.tripRepository = tripRepository;
+        this.userRepository = userRepository;
+        this.authenticationFacade = authenticationFacade;
+    }
+
+    /**
+     * The trips stream with backpressure: trips wait for the friendship check in a small bounded
+     * buffer, and beyond that rows are only fetched as the subscriber requests them.
+     *
+     * @throws UserNotLoggedInException right away, on the calling thread, which is where the
+     *                                  security context is
+     */
+    public Flux<Trip> getTripsByUser(User user) throws UserNotLoggedInException {
+        Long loggedUserId = loggedUserId();
+        Mono<Boolean> friendship = userRepository.findFriendsByUserId(loggedUserId)
+                .any(friend -> friend.getId().equals(user.getId()))
+                .cache();
+        // takeUntilOther subscribes to the friendship check before the trip query, so both run at
+        // once; filterWhen then reuses the cached answer for every trip
+        return tripRepository.findTripsByUser(user.getId())
+                .takeUntilOther(friendship.filter(isFriend -> !isFriend))
+                .filterWhen(trip -> friendship);
+    }
+
+    private Long loggedUserId() throws UserNotLoggedInException {
+        try {
+            return authenticationFacade.getCurrentUser().getId();
+        } catch (IllegalStateException e) {
+            throw new UserNotLoggedInException();
+        }
+    }
+}
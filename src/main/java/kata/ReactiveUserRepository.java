@@ -0,0 +1,34 @@
+package kata;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+/**
+ * Non-blocking counterpart of {@link UserRepository#findFriendsByUserId(Long)} over R2DBC, mapped
+ * by hand like the JDBC query.
+ */
+public class ReactiveUserRepository {
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveUserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<User> findFriendsByUserId(Long userId) {
+        return databaseClient.sql("""
+                        SELECT u.id, u.username FROM user_table u
+                        JOIN (SELECT user_high AS id FROM friendship WHERE user_low = :userId
+                              UNION ALL
+                              SELECT user_low FROM friendship WHERE user_high = :userId) f ON u.id = f.id
+                        """)
+                .bind("userId", userId)
+                .map(row -> {
+                    User user = new User();
+                    user.setId(row.get(0, Long.class));
+                    user.setUsername(row.get(1, String.class));
+                    return user;
+                })
+                .all();
+    }
+}
@@ -0,0 +1,88 @@
+package kata;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures how far the replica is behind the primary. Every check stamps the primary's
+ * {@code replication_heartbeat} row with the primary's clock and reads the row back from the
+ * replica; the difference is the lag, in primary time, whatever replicates the row.
+ * <p>
+ * The result is kept as the {@link System#nanoTime()} up to which the replica is known to have
+ * applied the primary's commits, so staleness keeps growing between checks instead of looking
+ * fresh until the next one. While the replica cannot be reached nothing is known.
+ */
+public class ReplicaLagMonitor implements SmartLifecycle {
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final Duration checkInterval;
+
+    private volatile OptionalLong caughtUpTo = OptionalLong.empty();
+    private ScheduledExecutorService scheduler;
+
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, Duration checkInterval) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * The {@link System#nanoTime()} up to which the replica has applied the primary's commits, or
+     * empty if the last check could not reach it.
+     */
+    public OptionalLong replicaCaughtUpTo() {
+        return caughtUpTo;
+    }
+
+    /**
+     * How old the replica's data is right now, or empty if unknown.
+     */
+    public Optional<Duration> staleness() {
+        OptionalLong caughtUpTo = this.caughtUpTo;
+        if (caughtUpTo.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofNanos(System.nanoTime() - caughtUpTo.getAsLong()));
+    }
+
+    public void refresh() {
+        try {
+            long checkedAt = System.nanoTime();
+            Timestamp primaryBeat = primary.queryForObject(
+                    "UPDATE replication_heartbeat SET beat_at = clock_timestamp() RETURNING beat_at", Timestamp.class);
+            Timestamp replicaBeat = replica.queryForObject("SELECT beat_at FROM replication_heartbeat", Timestamp.class);
+            long lag = Math.max(0, Duration.between(replicaBeat.toInstant(), primaryBeat.toInstant()).toNanos());
+            caughtUpTo = OptionalLong.of(checkedAt - lag);
+        } catch (DataAccessException e) {
+            caughtUpTo = OptionalLong.empty();
+        }
+    }
+
+    @Override
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("replica-lag-monitor").factory());
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return scheduler != null && !scheduler.isShutdown();
+    }
+}
@@ -0,0 +1,123 @@
+package kata;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalLong;
+
+import javax.sql.DataSource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Chooses the database for a read-only transaction: the replica while its data is no older than
+ * the caller accepts and it has applied the caller's own recent writes, the primary otherwise.
+ * Everything else never gets here and runs on the primary; see {@link ReplicaRoutingConfiguration}.
+ * <p>
+ * The accepted staleness is {@code trips.replica.max-staleness} unless the current thread runs in
+ * an {@link #allowStaleness(Duration)} scope. Own writes are the friendships the logged-in user
+ * changed through {@link FriendshipService} on this node; after a bulk friendship import everyone
+ * reads from the primary until the replica has caught up with it.
+ */
+public class ReplicaRouter extends AbstractRoutingDataSource {
+
+    private static final ThreadLocal<Duration> MAX_STALENESS = new ThreadLocal<>();
+    private static final Duration REMEMBER_WRITES_FOR = Duration.ofMinutes(5);
+
+    private final ReplicaLagMonitor lagMonitor;
+    private final AuthenticationFacade authenticationFacade;
+    private final Duration defaultMaxStaleness;
+    private final TripMetrics metrics;
+    private final Cache<Long, Long> lastWriteByUser = Caffeine.newBuilder()
+            .expireAfterWrite(REMEMBER_WRITES_FOR)
+            .maximumSize(1_000_000)
+            .build();
+    private volatile OptionalLong lastImport = OptionalLong.empty();
+
+    public ReplicaRouter(DataSource primary, DataSource replica, ReplicaLagMonitor lagMonitor,
+                         AuthenticationFacade authenticationFacade, Duration defaultMaxStaleness, TripMetrics metrics) {
+        this.lagMonitor = lagMonitor;
+        this.authenticationFacade = authenticationFacade;
+        this.defaultMaxStaleness = defaultMaxStaleness;
+        this.metrics = metrics;
+        setTargetDataSources(Map.<Object, Object>of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Lets read-only transactions on the current thread use the replica while its data is at most
+     * {@code maxStaleness} old, until the returned scope is closed.
+     */
+    public static Scope allowStaleness(Duration maxStaleness) {
+        Duration previous = MAX_STALENESS.get();
+        MAX_STALENESS.set(maxStaleness);
+        return () -> {
+            if (previous == null) {
+                MAX_STALENESS.remove();
+            } else {
+                MAX_STALENESS.set(previous);
+            }
+        };
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        OptionalLong caughtUpTo = lagMonitor.replicaCaughtUpTo();
+        Duration maxStaleness = MAX_STALENESS.get() == null ? defaultMaxStaleness : MAX_STALENESS.get();
+        if (caughtUpTo.isEmpty() || System.nanoTime() - caughtUpTo.getAsLong() > maxStaleness.toNanos()) {
+            return route(Target.PRIMARY, "stale_replica");
+        }
+        if (hasUnreplicatedOwnWrite(caughtUpTo.getAsLong())) {
+            return route(Target.PRIMARY, "own_write");
+        }
+        return route(Target.REPLICA, "fresh_replica");
+    }
+
+    private Target route(Target target, String reason) {
+        metrics.recordReadRouting(target.name().toLowerCase(), reason);
+        return target;
+    }
+
+    private boolean hasUnreplicatedOwnWrite(long caughtUpTo) {
+        OptionalLong lastImport = this.lastImport;
+        if (lastImport.isPresent() && lastImport.getAsLong() - caughtUpTo >= 0) {
+            return true;
+        }
+        if (lastWriteByUser.estimatedSize() == 0) {
+            return false;
+        }
+        CurrentUser currentUser;
+        try {
+            currentUser = authenticationFacade.getCurrentUser();
+        } catch (IllegalStateException notLoggedIn) {
+            return false;
+        }
+        Long lastWrite = currentUser == null ? null : lastWriteByUser.getIfPresent(currentUser.getId());
+        return lastWrite != null && lastWrite - caughtUpTo >= 0;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipChanged(FriendshipChangedEvent event) {
+        long committedAt = System.nanoTime();
+        lastWriteByUser.put(event.userId(), committedAt);
+        lastWriteByUser.put(event.friendId(), committedAt);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFriendshipsImported(FriendshipsImportedEvent event) {
+        lastImport = OptionalLong.of(System.nanoTime());
+    }
+
+    enum Target {
+        PRIMARY, REPLICA
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,89 @@
+package kata;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Sends read-only transactions to a replica pool when {@code trips.replica.enabled} is set.
+ * <p>
+ * The application's {@code DataSource} hands out lazy connections: nothing is fetched until the
+ * first statement, by which time a read-only transaction has marked its connection read-only.
+ * Those go through {@link ReplicaRouter}; everything else, including every write and any query
+ * outside a transaction, goes to the primary pool. The primary pool is configured with
+ * {@code spring.datasource.*}, the replica with {@code trips.replica.url}, {@code username},
+ * {@code password} and {@code trips.replica.hikari.*}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "trips.replica", name = "enabled", havingValue = "true")
+public class ReplicaRoutingConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties,
+                                       ObjectProvider<JdbcConnectionDetails> connectionDetails) {
+        JdbcConnectionDetails details = connectionDetails.getIfAvailable();
+        DataSourceBuilder<HikariDataSource> builder = DataSourceBuilder.create().type(HikariDataSource.class);
+        if (details != null) {
+            builder.url(details.getJdbcUrl()).username(details.getUsername()).password(details.getPassword());
+        } else {
+            builder.url(properties.determineUrl())
+                    .username(properties.determineUsername())
+                    .password(properties.determinePassword());
+        }
+        return builder.build();
+    }
+
+    @Bean
+    @ConfigurationProperties("trips.replica.hikari")
+    HikariDataSource replicaDataSource(TripServiceProperties properties) {
+        TripServiceProperties.ReplicaSettings replica = properties.getReplica();
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replica.getUrl())
+                .username(replica.getUsername())
+                .password(replica.getPassword())
+                .build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    ReplicaLagMonitor replicaLagMonitor(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                                        TripServiceProperties properties, TripMetrics metrics) {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(primaryDataSource, replicaDataSource,
+                properties.getReplica().getLagCheckInterval());
+        metrics.monitor(monitor);
+        return monitor;
+    }
+
+    @Bean
+    ReplicaRouter replicaRouter(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                                ReplicaLagMonitor replicaLagMonitor, AuthenticationFacade authenticationFacade,
+                                TripServiceProperties properties, TripMetrics metrics) {
+        return new ReplicaRouter(primaryDataSource, replicaDataSource, replicaLagMonitor, authenticationFacade,
+                properties.getReplica().getMaxStaleness(), metrics);
+    }
+
+    @Bean
+    @Primary
+    LazyConnectionDataSourceProxy dataSource(HikariDataSource primaryDataSource, ReplicaRouter replicaRouter) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaRouter);
+        return dataSource;
+    }
+
+    @Bean
+    ReplicaStalenessFilter replicaStalenessFilter() {
+        return new ReplicaStalenessFilter();
+    }
+}
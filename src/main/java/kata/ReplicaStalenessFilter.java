@@ -0,0 +1,52 @@
+package kata;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Takes the staleness a client accepts for one request from its {@code Cache-Control: max-stale=N}
+ * header, in seconds, and applies it to the request's read-only transactions with
+ * {@link ReplicaRouter#allowStaleness(Duration)}. Requests without the directive get
+ * {@code trips.replica.max-staleness}.
+ */
+public class ReplicaStalenessFilter extends OncePerRequestFilter {
+
+    private static final String MAX_STALE = "max-stale=";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Duration maxStale = maxStaleOf(request.getHeader(HttpHeaders.CACHE_CONTROL));
+        if (maxStale == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try (ReplicaRouter.Scope ignored = ReplicaRouter.allowStaleness(maxStale)) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    static Duration maxStaleOf(String cacheControl) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String directive : cacheControl.split(",")) {
+            String trimmed = directive.trim();
+            if (trimmed.startsWith(MAX_STALE)) {
+                try {
+                    return Duration.ofSeconds(Long.parseLong(trimmed.substring(MAX_STALE.length())));
+                } catch (NumberFormatException malformed) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
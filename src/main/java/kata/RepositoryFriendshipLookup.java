@@ -0,0 +1,36 @@
+package kata;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Loads the whole friend list on every check, as the original {@link TripService} did. Only the
+ * friend ids are read, from {@code friendship} alone, so the check never touches {@code user_table}.
+ * The query runs in a read-only transaction, joining the caller's if there is one.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips", name = "friendship-source", havingValue = "repository", matchIfMissing = true)
+public class RepositoryFriendshipLookup implements FriendshipLookup {
+
+    private final UserRepository userRepository;
+    private final TripMetrics metrics;
+
+    public RepositoryFriendshipLookup(UserRepository userRepository, TripMetrics metrics) {
+        this.userRepository = userRepository;
+        this.metrics = metrics;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean areFriends(Long userId, Long otherUserId) {
+        long[] friendIds = userRepository.findFriendIdsByUserId(userId);
+        metrics.recordFriendListSize(friendIds.length);
+        for (long friendId : friendIds) {
+            if (friendId == otherUserId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
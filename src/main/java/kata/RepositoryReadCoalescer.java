@@ -0,0 +1,108 @@
+package kata;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Coalesces concurrent identical {@code find*} calls on {@link TripQueries}, {@link TripRepository} and
+ * {@link UserRepository}: callers asking for the same method and arguments while a query is running
+ * share that query's result or failure instead of sending their own.
+ * <p>
+ * Calls made inside a read-write transaction always run on their own, since they may need to see
+ * their own writes or hold locks. Read-only transactions are coalesced like plain calls, except
+ * with {@code trips.replica.enabled}: they are routed per user, and a waiter that must read its own
+ * writes from the primary cannot share a leader's replica result. Every caller gets a copy of
+ * its own: lists, sets, maps, arrays and {@link User}s are copied, the immutable records are shared.
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(prefix = "trips.coalescing", name = "enabled", havingValue = "true")
+public class RepositoryReadCoalescer {
+
+    private final SingleFlight<Invocation, Object> singleFlight;
+    private final boolean replicaRouting;
+
+    public RepositoryReadCoalescer(TripMetrics metrics, TripServiceProperties properties) {
+        this.singleFlight = new SingleFlight<>(RepositoryReadCoalescer::copy,
+                invocation -> metrics.recordCoalescedCall(invocation.method().getName()));
+        this.replicaRouting = properties.getReplica().isEnabled();
+    }
+
+    @Around("execution(* kata.TripQueries+.find*(..)) || execution(* kata.TripRepository+.find*(..))"
+            + " || execution(* kata.UserRepository+.find*(..))")
+    public Object coalesce(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && (replicaRouting || !TransactionSynchronizationManager.isCurrentTransactionReadOnly())) {
+            return joinPoint.proceed();
+        }
+        Invocation invocation = new Invocation(((MethodSignature) joinPoint.getSignature()).getMethod(), joinPoint.getArgs());
+        return singleFlight.execute(invocation, joinPoint::proceed);
+    }
+
+    static Object copy(Object result) {
+        if (result instanceof User user) {
+            User copy = new User();
+            copy.setId(user.getId());
+            copy.setUsername(user.getUsername());
+            return copy;
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.map(RepositoryReadCoalescer::copy);
+        }
+        if (result instanceof VersionedTrips versionedTrips) {
+            return new VersionedTrips(versionedTrips.version(), new ArrayList<>(versionedTrips.trips()));
+        }
+        if (result instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(element -> copy.add(copy(element)));
+            return copy;
+        }
+        if (result instanceof Set<?> set) {
+            Set<Object> copy = new LinkedHashSet<>();
+            set.forEach(element -> copy.add(copy(element)));
+            return copy;
+        }
+        if (result instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((key, value) -> copy.put(key, copy(value)));
+            return copy;
+        }
+        if (result instanceof long[] array) {
+            return array.clone();
+        }
+        return result;
+    }
+
+    /**
+     * Identifies a call by method and argument values, comparing array arguments by content.
+     */
+    private record Invocation(Method method, Object[] args) {
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Invocation invocation
+                    && method.equals(invocation.method)
+                    && Arrays.deepEquals(args, invocation.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + Arrays.deepHashCode(args);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package kata;
+
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Queries the trips on every call, in a read-only transaction, joining the caller's if there is one.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.trip-list-cache", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class RepositoryTripListLookup implements TripListLookup {
+
+    private final TripQueries tripRepository;
+
+    public RepositoryTripListLookup(TripQueries tripRepository) {
+        this.tripRepository = tripRepository;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Trip> tripsOf(Long userId) {
+        return tripRepository.findTripsByUser(userId);
+    }
+}
@@ -0,0 +1,66 @@
+package kata;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * One database of a sharded deployment, with the hand-written queries bound to it. Statements run
+ * outside the application's transactions; {@link #transactionTemplate()} opens one on this shard.
+ */
+public class Shard {
+
+    private final int number;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcClient jdbcClient;
+    private final TransactionTemplate transactionTemplate;
+    private final TripRepositoryCustom trips;
+    private final UserRepositoryCustom users;
+
+    public Shard(int number, DataSource dataSource) {
+        this.number = number;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcClient = JdbcClient.create(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.trips = new TripRepositoryCustomImpl(jdbcTemplate);
+        this.users = new UserRepositoryCustomImpl(jdbcTemplate);
+    }
+
+    public int number() {
+        return number;
+    }
+
+    public DataSource dataSource() {
+        return dataSource;
+    }
+
+    public JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public JdbcClient jdbcClient() {
+        return jdbcClient;
+    }
+
+    public TransactionTemplate transactionTemplate() {
+        return transactionTemplate;
+    }
+
+    public TripRepositoryCustom trips() {
+        return trips;
+    }
+
+    public UserRepositoryCustom users() {
+        return users;
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + number;
+    }
+}
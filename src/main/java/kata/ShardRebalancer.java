@@ -0,0 +1,196 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Moves buckets of users between shards, for example onto a shard that was just added to
+ * {@code trips.sharding.shards}. A move copies the bucket's users with their trips, trip
+ * assignments and friendships to the target shard, points the bucket at the target, then deletes
+ * what the old shard no longer needs. Friendships with users who stay behind remain on both sides.
+ * <p>
+ * Trip ids are unique across shards, so a trip already on the target under the same id is the same
+ * trip, shared with a user there. A different trip under that id means ids were not handed out by
+ * {@link ShardedTripRepository#addTrip}; the move then fails before anything is changed.
+ * <p>
+ * Moves are not isolated from concurrent writes: pause friendship and trip writes while they run.
+ * Other nodes follow the new placement on their next refresh. A move can be repeated, and running
+ * an interrupted move again completes it.
+ */
+public class ShardRebalancer {
+
+    private static final int SCAN_FETCH_SIZE = 10_000;
+
+    private final ShardRouter router;
+
+    public ShardRebalancer(ShardRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * Moves buckets from the shards holding the most buckets to those holding the fewest until
+     * every shard holds the same number, give or take one.
+     */
+    public List<BucketMove> rebalance() {
+        int[] placement = router.placement();
+        List<BucketMove> moves = new ArrayList<>();
+        while (true) {
+            int[] load = new int[router.shards().size()];
+            for (int shard : placement) {
+                load[shard]++;
+            }
+            int fullest = 0;
+            int emptiest = 0;
+            for (int shard = 1; shard < load.length; shard++) {
+                fullest = load[shard] > load[fullest] ? shard : fullest;
+                emptiest = load[shard] < load[emptiest] ? shard : emptiest;
+            }
+            if (load[fullest] - load[emptiest] <= 1) {
+                return moves;
+            }
+            int bucket = lastBucketOn(placement, fullest);
+            int users = moveBucket(bucket, emptiest);
+            placement[bucket] = emptiest;
+            moves.add(new BucketMove(bucket, fullest, emptiest, users));
+        }
+    }
+
+    /**
+     * Moves every user of the bucket, wherever they are found, to the target shard.
+     *
+     * @return the number of users moved
+     */
+    public int moveBucket(int bucket, int targetShard) {
+        Shard target = router.shards().get(targetShard);
+        int[] placement = router.placement();
+        placement[bucket] = targetShard;
+
+        Map<Shard, Long[]> usersBySource = new LinkedHashMap<>();
+        for (Shard shard : router.shards()) {
+            if (shard != target) {
+                Long[] userIds = usersInBucket(shard, bucket);
+                if (userIds.length > 0) {
+                    usersBySource.put(shard, userIds);
+                }
+            }
+        }
+
+        usersBySource.forEach((source, userIds) -> copy(source, target, userIds));
+        router.assign(bucket, target);
+        usersBySource.forEach((source, userIds) -> remove(source, userIds, placement));
+        return usersBySource.values().stream().mapToInt(userIds -> userIds.length).sum();
+    }
+
+    private Long[] usersInBucket(Shard shard, int bucket) {
+        List<Long> userIds = new ArrayList<>();
+        JdbcTemplate scan = new JdbcTemplate(shard.dataSource());
+        scan.setFetchSize(SCAN_FETCH_SIZE);
+        shard.transactionTemplate().executeWithoutResult(status -> scan.query("SELECT id FROM user_table",
+                (RowCallbackHandler) rs -> {
+                    long userId = rs.getLong(1);
+                    if (router.bucketOf(userId) == bucket) {
+                        userIds.add(userId);
+                    }
+                }));
+        return userIds.toArray(Long[]::new);
+    }
+
+    private static void copy(Shard source, Shard target, Long[] userIds) {
+        JdbcTemplate from = source.jdbcTemplate();
+        List<Object[]> users = from.query("SELECT id, username, trips_version FROM user_table WHERE id = ANY(?)",
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getLong(3)}, (Object) userIds);
+        List<Object[]> trips = from.query("""
+                        SELECT id, name, created_at FROM trip
+                        WHERE id IN (SELECT trip_id FROM user_trip WHERE user_id = ANY(?))
+                        """,
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getTimestamp(3)}, (Object) userIds);
+        List<Object[]> assignments = from.query("SELECT user_id, trip_id FROM user_trip WHERE user_id = ANY(?)",
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getLong(2)}, (Object) userIds);
+        List<Object[]> friendships = friendshipsOf(source, userIds);
+
+        // Copying the assignments bumps trips_version past the copied value, so ETags and cached
+        // trip lists from before the move are never mistaken for current ones
+        JdbcTemplate to = target.jdbcTemplate();
+        target.transactionTemplate().executeWithoutResult(status -> {
+            to.batchUpdate("INSERT INTO user_table (id, username, trips_version) VALUES (?, ?, ?) ON CONFLICT (id) DO NOTHING", users);
+            to.batchUpdate("INSERT INTO trip (id, name, created_at) VALUES (?, ?, ?) ON CONFLICT (id) DO NOTHING", trips);
+            rejectClashingTrips(trips, target);
+            to.queryForObject("SELECT setval(pg_get_serial_sequence('trip', 'id'), GREATEST((SELECT max(id) FROM trip), 1))",
+                    Long.class);
+            to.batchUpdate("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?) ON CONFLICT DO NOTHING", assignments);
+            to.batchUpdate("INSERT INTO friendship (user_low, user_high) VALUES (?, ?) ON CONFLICT DO NOTHING", friendships);
+        });
+    }
+
+    /**
+     * Fails if a trip on the target shares an id with one of the copied trips but not its name and
+     * creation time.
+     */
+    private static void rejectClashingTrips(List<Object[]> trips, Shard target) {
+        Map<Long, Object[]> copied = new LinkedHashMap<>();
+        trips.forEach(trip -> copied.put((Long) trip[0], trip));
+        List<Long> clashing = new ArrayList<>();
+        target.jdbcTemplate().query("SELECT id, name, created_at FROM trip WHERE id = ANY(?)",
+                (RowCallbackHandler) rs -> {
+                    Object[] trip = copied.get(rs.getLong(1));
+                    if (!Objects.equals(trip[1], rs.getString(2)) || !Objects.equals(trip[2], rs.getTimestamp(3))) {
+                        clashing.add(rs.getLong(1));
+                    }
+                },
+                (Object) copied.keySet().toArray(Long[]::new));
+        if (!clashing.isEmpty()) {
+            throw new IllegalStateException("Trips " + clashing + " on " + target + " are different trips under the same ids");
+        }
+    }
+
+    private void remove(Shard source, Long[] userIds, int[] placement) {
+        JdbcTemplate from = source.jdbcTemplate();
+        source.transactionTemplate().executeWithoutResult(status -> {
+            from.queryForObject("SELECT set_config('trips.moving_users', 'on', true)", String.class);
+            List<Object[]> unneeded = friendshipsOf(source, userIds).stream()
+                    .filter(friendship -> !livesOn(source, (Long) friendship[0], placement)
+                            && !livesOn(source, (Long) friendship[1], placement))
+                    .toList();
+            from.batchUpdate("DELETE FROM friendship WHERE user_low = ? AND user_high = ?", unneeded);
+            Long[] tripIds = from.queryForList("SELECT DISTINCT trip_id FROM user_trip WHERE user_id = ANY(?)",
+                    Long.class, (Object) userIds).toArray(Long[]::new);
+            from.update("DELETE FROM user_trip WHERE user_id = ANY(?)", (Object) userIds);
+            from.update("DELETE FROM user_table WHERE id = ANY(?)", (Object) userIds);
+            from.update("""
+                    DELETE FROM trip t
+                    WHERE t.id = ANY(?) AND NOT EXISTS (SELECT 1 FROM user_trip ut WHERE ut.trip_id = t.id)
+                    """, (Object) tripIds);
+        });
+    }
+
+    private static List<Object[]> friendshipsOf(Shard shard, Long[] userIds) {
+        return shard.jdbcTemplate().query("""
+                        SELECT user_low, user_high FROM friendship WHERE user_low = ANY(?)
+                        UNION
+                        SELECT user_low, user_high FROM friendship WHERE user_high = ANY(?)
+                        """,
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getLong(2)}, userIds, userIds);
+    }
+
+    private boolean livesOn(Shard shard, long userId, int[] placement) {
+        return placement[router.bucketOf(userId)] == shard.number();
+    }
+
+    private static int lastBucketOn(int[] placement, int shard) {
+        for (int bucket = placement.length - 1; bucket >= 0; bucket--) {
+            if (placement[bucket] == shard) {
+                return bucket;
+            }
+        }
+        throw new IllegalStateException("No bucket is placed on shard " + shard);
+    }
+
+    public record BucketMove(int bucket, int fromShard, int toShard, int users) {
+    }
+}
@@ -0,0 +1,172 @@
+package kata;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Places users on shards. A user id hashes into one of a fixed number of buckets, and each bucket
+ * lives on one shard as recorded in the {@code shard_bucket} table of the application's own
+ * database. The first node to start spreads the buckets round-robin; {@link ShardRebalancer}
+ * moves them later, and every node rereads the table periodically.
+ */
+public class ShardRouter implements SmartLifecycle, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRouter.class);
+
+    private final List<Shard> shards;
+    private final JdbcTemplate catalog;
+    private final int buckets;
+    private final Duration refreshInterval;
+
+    private volatile int[] shardOfBucket;
+    private ScheduledExecutorService scheduler;
+
+    public ShardRouter(List<Shard> shards, JdbcTemplate catalog, int buckets, Duration refreshInterval) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("trips.sharding.shards must list at least one shard");
+        }
+        this.shards = List.copyOf(shards);
+        this.catalog = catalog;
+        this.buckets = buckets;
+        this.refreshInterval = refreshInterval;
+        catalog.update("""
+                INSERT INTO shard_bucket (bucket, shard)
+                SELECT b, b % ? FROM generate_series(0, ? - 1) b
+                WHERE NOT EXISTS (SELECT 1 FROM shard_bucket)
+                ON CONFLICT DO NOTHING
+                """, shards.size(), buckets);
+        refresh();
+    }
+
+    /**
+     * The bucket of a user id, spread evenly whatever the ids look like.
+     */
+    public static int bucketOf(long userId, int buckets) {
+        long z = userId;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) Math.floorMod(z, (long) buckets);
+    }
+
+    public int bucketOf(long userId) {
+        return bucketOf(userId, buckets);
+    }
+
+    public Shard shardOf(long userId) {
+        return shards.get(shardOfBucket[bucketOf(userId)]);
+    }
+
+    public Shard shardOfBucket(int bucket) {
+        return shards.get(shardOfBucket[bucket]);
+    }
+
+    public List<Shard> shards() {
+        return shards;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * Shard number of every bucket, indexed by bucket.
+     */
+    public int[] placement() {
+        return shardOfBucket.clone();
+    }
+
+    /**
+     * Splits the ids by the shard their users live on, keeping their order within each shard.
+     */
+    public Map<Shard, List<Long>> groupByShard(Collection<Long> userIds) {
+        Map<Shard, List<Long>> groups = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            groups.computeIfAbsent(shardOf(userId), shard -> new ArrayList<>()).add(userId);
+        }
+        return groups;
+    }
+
+    public Map<Shard, long[]> groupByShard(long[] userIds) {
+        Map<Shard, List<Long>> groups = groupByShard(Arrays.stream(userIds).boxed().toList());
+        Map<Shard, long[]> arrays = new LinkedHashMap<>();
+        groups.forEach((shard, ids) -> arrays.put(shard, ids.stream().mapToLong(Long::longValue).toArray()));
+        return arrays;
+    }
+
+    /**
+     * Records that the bucket now lives on the given shard. Other nodes follow on their next refresh.
+     */
+    void assign(int bucket, Shard shard) {
+        catalog.update("UPDATE shard_bucket SET shard = ? WHERE bucket = ?", shard.number(), bucket);
+        refresh();
+    }
+
+    public void refresh() {
+        int[] placement = new int[buckets];
+        int[] rows = {0};
+        catalog.query("SELECT bucket, shard FROM shard_bucket", (RowCallbackHandler) rs -> {
+            int bucket = rs.getInt(1);
+            int shard = rs.getInt(2);
+            if (bucket >= buckets || shard >= shards.size()) {
+                throw new IllegalStateException("Bucket %d is placed on shard %d, but trips.sharding configures %d buckets on %d shards"
+                        .formatted(bucket, shard, buckets, shards.size()));
+            }
+            placement[bucket] = shard;
+            rows[0]++;
+        });
+        if (rows[0] != buckets) {
+            throw new IllegalStateException("shard_bucket places %d buckets, but trips.sharding.buckets is %d"
+                    .formatted(rows[0], buckets));
+        }
+        shardOfBucket = placement;
+    }
+
+    @Override
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("shard-placement").factory());
+        long interval = refreshInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (DataAccessException | IllegalStateException e) {
+                log.warn("Could not reread the shard placement, keeping the previous one", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return scheduler != null && !scheduler.isShutdown();
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            if (shard.dataSource() instanceof HikariDataSource pool) {
+                pool.close();
+            }
+        }
+    }
+}
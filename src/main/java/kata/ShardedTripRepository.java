@@ -0,0 +1,167 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * {@link TripQueries} for a sharded deployment ({@link ShardingConfiguration}). Trips are stored
+ * on their owners' shards, next to the owners' friendships, so the lookups behind
+ * {@link TripService} for one user, including the single-statement friendship check, run on one
+ * shard. Lookups across users ask each shard involved once and merge the results. A trip shared by users on several shards is stored on each of them, under
+ * the same id: trip ids are handed out by the application's own database, see {@link #addTrip}.
+ * <p>
+ * There is no {@code save}: a trip on its own does not name the shards it belongs on, so trips are
+ * written with their owner through {@link #addTrip}.
+ */
+public class ShardedTripRepository implements TripQueries {
+
+    private static final RowMapper<Trip> TRIP = (rs, rowNum) -> new Trip(rs.getLong(1), rs.getString(2));
+
+    private final ShardRouter router;
+    private final JdbcTemplate catalog;
+
+    /**
+     * @param catalog the application's own database, whose {@code trip} sequence hands out trip ids
+     *                that are unique across shards
+     */
+    public ShardedTripRepository(ShardRouter router, JdbcTemplate catalog) {
+        this.router = router;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Stores a new trip with its owner's assignment on the owner's shard, in one transaction.
+     */
+    public Trip addTrip(Long ownerId, String name) {
+        long tripId = catalog.queryForObject("SELECT nextval(pg_get_serial_sequence('trip', 'id'))", Long.class);
+        Shard shard = router.shardOf(ownerId);
+        shard.transactionTemplate().executeWithoutResult(status -> {
+            shard.jdbcTemplate().update("INSERT INTO trip (id, name) VALUES (?, ?)", tripId, name);
+            shard.jdbcTemplate().update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", ownerId, tripId);
+        });
+        return new Trip(tripId, name);
+    }
+
+    @Override
+    public List<Trip> findTripsByUser(Long userId) {
+        return router.shardOf(userId).trips().findTripsByUser(userId);
+    }
+
+    @Override
+    public List<Trip> findTripsByUserVisibleTo(Long userId, Long viewerId) {
+        return router.shardOf(userId).jdbcClient()
+                .sql("""
+                        SELECT t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id
+                        WHERE ut.user_id = ?
+                          AND EXISTS (SELECT 1 FROM friendship f
+                                      WHERE f.user_low = LEAST(?, ?) AND f.user_high = GREATEST(?, ?))
+                        """)
+                .params(userId, viewerId, userId, viewerId, userId)
+                .query(TRIP)
+                .list();
+    }
+
+    /**
+     * Never called: startup fails when {@code trips.lookup-mode=read-model} is combined with sharding.
+     */
+    @Override
+    public List<Trip> findTripsByUserFromReadModel(Long userId, Long viewerId) {
+        throw new IllegalStateException("Unreachable: ShardingConfiguration rejects trips.lookup-mode=read-model, "
+                + "as the visible_trip read model is not maintained on shards");
+    }
+
+    @Override
+    public List<Trip> findTripsByUserAfter(Long userId, Long afterTripId, int limit) {
+        return router.shardOf(userId).jdbcClient()
+                .sql("""
+                        SELECT t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id
+                        WHERE ut.user_id = ? AND ut.trip_id > ?
+                        ORDER BY ut.trip_id
+                        LIMIT ?
+                        """)
+                .params(userId, afterTripId, limit)
+                .query(TRIP)
+                .list();
+    }
+
+    @Override
+    public Map<Long, List<Trip>> findTripsByUsers(Collection<Long> userIds) {
+        Map<Long, List<Trip>> tripsByUser = new HashMap<>();
+        router.groupByShard(userIds).forEach((shard, ids) -> tripsByUser.putAll(shard.trips().findTripsByUsers(ids)));
+        return tripsByUser;
+    }
+
+    @Override
+    public Optional<VersionedTrips> findVersionedTripsByUser(Long userId) {
+        return router.shardOf(userId).trips().findVersionedTripsByUser(userId);
+    }
+
+    /**
+     * Each shard ranks the trips of its users by their earliest position in {@code userIds}; the
+     * rankings are merged, keeping a trip stored on several shards at its earliest position.
+     */
+    @Override
+    public List<Trip> findTripsByUsersInOrder(long[] userIds, int limit) {
+        Map<Shard, List<Long>> idsByShard = new LinkedHashMap<>();
+        Map<Shard, List<Integer>> positionsByShard = new LinkedHashMap<>();
+        for (int position = 0; position < userIds.length; position++) {
+            Shard shard = router.shardOf(userIds[position]);
+            idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(userIds[position]);
+            positionsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(position);
+        }
+
+        Map<Long, RankedTrip> ranked = new HashMap<>();
+        idsByShard.forEach((shard, ids) -> shard.jdbcClient()
+                .sql("""
+                        SELECT t.id, t.name, min(u.position)
+                        FROM unnest(?::bigint[], ?::int[]) AS u (user_id, position)
+                        JOIN user_trip ut ON ut.user_id = u.user_id
+                        JOIN trip t ON t.id = ut.trip_id
+                        GROUP BY t.id, t.name
+                        ORDER BY min(u.position), t.id
+                        LIMIT ?
+                        """)
+                .params(ids.toArray(Long[]::new), positionsByShard.get(shard).toArray(Integer[]::new), limit)
+                .query((rs, rowNum) -> new RankedTrip(new Trip(rs.getLong(1), rs.getString(2)), rs.getInt(3)))
+                .list()
+                .forEach(trip -> ranked.merge(trip.trip().id(), trip,
+                        (kept, other) -> other.position() < kept.position() ? other : kept)));
+
+        return ranked.values().stream()
+                .sorted(Comparator.comparingInt(RankedTrip::position).thenComparing(trip -> trip.trip().id()))
+                .limit(limit)
+                .map(RankedTrip::trip)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Each shard returns its newest {@code limit} entries after the cursor, which the merged page
+     * is taken from.
+     */
+    @Override
+    public List<FeedEntry> findFeedEntries(long[] ownerIds, FeedCursor after, int limit) {
+        List<FeedEntry> entries = new ArrayList<>();
+        router.groupByShard(ownerIds).forEach((shard, owners) -> entries.addAll(shard.trips().findFeedEntries(owners, after, limit)));
+        entries.sort(FeedEntry.NEWEST_FIRST);
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    @Override
+    public Stream<Trip> streamTripsByUser(Long userId) {
+        return router.shardOf(userId).trips().streamTripsByUser(userId);
+    }
+
+    private record RankedTrip(Trip trip, int position) {
+    }
+}
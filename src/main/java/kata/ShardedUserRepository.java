@@ -0,0 +1,302 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * {@link UserRepository} for a sharded deployment ({@link ShardingConfiguration}). Users live on
+ * the shard {@link ShardRouter} places them on; a friendship is stored on the shards of both its
+ * users, so friend lists and friendship checks are answered by the shard of either user alone.
+ * Lookups by anything but the user id ask every shard.
+ * <p>
+ * Friendships are written to the two shards one after the other, not atomically. If the second
+ * write fails the first is undone on a best-effort basis, unless the first shard already held the
+ * friendship; both writes are idempotent, so retrying the call repairs a friendship left on one
+ * side only.
+ */
+public class ShardedUserRepository implements UserRepository {
+
+    private static final RowMapper<User> USER = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getLong(1));
+        user.setUsername(rs.getString(2));
+        return user;
+    };
+
+    private final ShardRouter router;
+    private final JdbcTemplate catalog;
+
+    /**
+     * @param catalog the application's own database, whose {@code user_table} sequence hands out
+     *                user ids that are unique across shards
+     */
+    public ShardedUserRepository(ShardRouter router, JdbcTemplate catalog) {
+        this.router = router;
+        this.catalog = catalog;
+    }
+
+    @Override
+    public <S extends User> S save(S user) {
+        if (user.getId() == null) {
+            user.setId(catalog.queryForObject("SELECT nextval(pg_get_serial_sequence('user_table', 'id'))", Long.class));
+        }
+        router.shardOf(user.getId()).jdbcClient()
+                .sql("INSERT INTO user_table (id, username) VALUES (?, ?) ON CONFLICT (id) DO UPDATE SET username = EXCLUDED.username")
+                .params(user.getId(), user.getUsername())
+                .update();
+        return user;
+    }
+
+    @Override
+    public <S extends User> Iterable<S> saveAll(Iterable<S> users) {
+        List<S> saved = new ArrayList<>();
+        for (S user : users) {
+            saved.add(save(user));
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        return router.shardOf(id).jdbcClient()
+                .sql("SELECT id, username FROM user_table WHERE id = ?")
+                .param(id)
+                .query(USER)
+                .optional();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return findById(id).isPresent();
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        for (Shard shard : router.shards()) {
+            Optional<User> user = shard.jdbcClient()
+                    .sql("SELECT id, username FROM user_table WHERE username = ? LIMIT 1")
+                    .param(username)
+                    .query(USER)
+                    .optional();
+            if (user.isPresent()) {
+                return user;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Iterable<User> findAll() {
+        List<User> users = new ArrayList<>();
+        for (Shard shard : router.shards()) {
+            users.addAll(shard.jdbcClient().sql("SELECT id, username FROM user_table").query(USER).list());
+        }
+        return users;
+    }
+
+    @Override
+    public Iterable<User> findAllById(Iterable<Long> ids) {
+        List<Long> userIds = new ArrayList<>();
+        ids.forEach(userIds::add);
+        return findUsers(userIds);
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (Shard shard : router.shards()) {
+            count += shard.jdbcClient().sql("SELECT count(*) FROM user_table").query(Long.class).single();
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the user, their trip assignments and their friendships, including the copies on
+     * their friends' shards.
+     */
+    @Override
+    public void deleteById(Long id) {
+        Shard home = router.shardOf(id);
+        for (Shard shard : router.groupByShard(home.users().findFriendIdsByUserId(id)).keySet()) {
+            if (shard != home) {
+                shard.jdbcTemplate().update("DELETE FROM friendship WHERE user_low = ? OR user_high = ?", id, id);
+            }
+        }
+        home.jdbcTemplate().update("DELETE FROM user_table WHERE id = ?", id);
+    }
+
+    @Override
+    public void delete(User user) {
+        deleteById(user.getId());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends User> users) {
+        users.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        for (Shard shard : router.shards()) {
+            shard.jdbcTemplate().update("DELETE FROM user_table");
+        }
+    }
+
+    @Override
+    public void insertFriendship(Long userId, Long friendId) {
+        Shard first = router.shardOf(userId);
+        Shard second = router.shardOf(friendId);
+        boolean insertedOnFirst = insertFriendship(first, userId, friendId);
+        if (second == first) {
+            return;
+        }
+        try {
+            insertFriendship(second, userId, friendId);
+        } catch (RuntimeException e) {
+            if (insertedOnFirst) {
+                try {
+                    deleteFriendship(first, userId, friendId);
+                } catch (RuntimeException undoFailed) {
+                    e.addSuppressed(undoFailed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteFriendship(Long userId, Long friendId) {
+        Shard first = router.shardOf(userId);
+        Shard second = router.shardOf(friendId);
+        deleteFriendship(first, userId, friendId);
+        if (second != first) {
+            deleteFriendship(second, userId, friendId);
+        }
+    }
+
+    @Override
+    public List<User> findFriendsByUserId(Long userId) {
+        long[] friendIds = router.shardOf(userId).users().findFriendIdsByUserId(userId);
+        List<Long> ids = new ArrayList<>(friendIds.length);
+        for (long friendId : friendIds) {
+            ids.add(friendId);
+        }
+        return findUsers(ids);
+    }
+
+    @Override
+    public boolean existsFriendship(Long userId, Long friendId) {
+        return router.shardOf(userId).users().existsFriendship(userId, friendId);
+    }
+
+    @Override
+    public long[] findFriendIdsByUserId(Long userId) {
+        return router.shardOf(userId).users().findFriendIdsByUserId(userId);
+    }
+
+    @Override
+    public Set<Long> findFriendIdsAmong(Long userId, Collection<Long> candidateIds) {
+        return router.shardOf(userId).users().findFriendIdsAmong(userId, candidateIds);
+    }
+
+    /**
+     * Breadth-first, one level at a time: each level asks every shard that holds users of the
+     * previous level for their friends, in one query per shard.
+     */
+    @Override
+    public long[] findUserIdsWithinHops(Long userId, int maxDepth, int maxUsers) {
+        Set<Long> seen = new HashSet<>();
+        seen.add(userId);
+        Set<Long> reached = new LinkedHashSet<>();
+        long[] frontier = {userId};
+        for (int depth = 1; depth <= maxDepth && frontier.length > 0 && reached.size() < maxUsers; depth++) {
+            TreeSet<Long> level = new TreeSet<>();
+            router.groupByShard(frontier).forEach((shard, ids) -> {
+                Long[] boxed = new Long[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    boxed[i] = ids[i];
+                }
+                for (Long friendId : shard.jdbcTemplate().queryForList(
+                        """
+                        SELECT user_high FROM friendship WHERE user_low = ANY(?)
+                        UNION
+                        SELECT user_low FROM friendship WHERE user_high = ANY(?)
+                        """,
+                        Long.class, boxed, boxed)) {
+                    if (!seen.contains(friendId)) {
+                        level.add(friendId);
+                    }
+                }
+            });
+            seen.addAll(level);
+            for (Long reachedId : level) {
+                if (reached.size() == maxUsers) {
+                    break;
+                }
+                reached.add(reachedId);
+            }
+            frontier = level.stream().mapToLong(Long::longValue).toArray();
+        }
+        return reached.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public Optional<Long> findTripsVersion(Long userId) {
+        return router.shardOf(userId).users().findTripsVersion(userId);
+    }
+
+    /**
+     * Reports each friendship once, from the shard of its lower user id. Each shard is read in its
+     * own transaction so that rows are fetched in chunks.
+     */
+    @Override
+    public void forEachFriendship(FriendshipConsumer consumer) {
+        for (Shard shard : router.shards()) {
+            shard.transactionTemplate().executeWithoutResult(status -> shard.users().forEachFriendship((userId, friendId) -> {
+                if (router.shardOf(Math.min(userId, friendId)) == shard) {
+                    consumer.accept(userId, friendId);
+                }
+            }));
+        }
+    }
+
+    private List<User> findUsers(Collection<Long> userIds) {
+        List<User> users = new ArrayList<>();
+        router.groupByShard(userIds).forEach((shard, ids) -> users.addAll(shard.jdbcClient()
+                .sql("SELECT id, username FROM user_table WHERE id = ANY(?)")
+                .param(ids.toArray(Long[]::new))
+                .query(USER)
+                .list()));
+        return users;
+    }
+
+    /**
+     * Returns whether the row was new on that shard.
+     */
+    private static boolean insertFriendship(Shard shard, Long userId, Long friendId) {
+        return shard.jdbcTemplate().update("""
+                INSERT INTO friendship (user_low, user_high)
+                VALUES (LEAST(?, ?), GREATEST(?, ?))
+                ON CONFLICT DO NOTHING
+                """, userId, friendId, userId, friendId) == 1;
+    }
+
+    private static void deleteFriendship(Shard shard, Long userId, Long friendId) {
+        shard.jdbcTemplate().update("DELETE FROM friendship WHERE user_low = LEAST(?, ?) AND user_high = GREATEST(?, ?)",
+                userId, friendId, userId, friendId);
+    }
+}
@@ -0,0 +1,85 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Spreads users over several databases when {@code trips.sharding.enabled} is set. Each entry of
+ * {@code trips.sharding.shards} gets its own pool and is migrated on startup, as
+ * {@code trips.startup.flyway} says; the application's own database keeps the bucket placement and
+ * hands out user and trip ids. The sharded repositories replace
+ * the Spring Data ones wherever {@link TripQueries} and {@link UserRepository} are injected; a
+ * {@link TripRepository} injected directly still writes to the application's own database.
+ * <p>
+ * The {@code visible_trip} read model, the trip list cache's change notifications, the reactive
+ * lookup and the bulk import still work on the application's own database only. Startup fails if
+ * {@code trips.lookup-mode=read-model}, {@code trips.trip-list-cache.enabled} or
+ * {@code trips.reactive.enabled} is set together with sharding, and {@link BulkImportService}
+ * refuses every import.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "trips.sharding", name = "enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+    @Bean
+    ShardRouter shardRouter(TripServiceProperties properties, JdbcTemplate jdbcTemplate) {
+        rejectUnshardedFeatures(properties);
+        TripServiceProperties.ShardingSettings sharding = properties.getSharding();
+        List<Shard> shards = new ArrayList<>();
+        for (TripServiceProperties.ShardConnection connection : sharding.getShards()) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(connection.getUrl())
+                    .username(connection.getUsername())
+                    .password(connection.getPassword())
+                    .build();
+            dataSource.setPoolName("shard-" + shards.size());
+            StartupConfiguration.migrate(Flyway.configure().dataSource(dataSource).load(), properties.getStartup().getFlyway());
+            shards.add(new Shard(shards.size(), dataSource));
+        }
+        return new ShardRouter(shards, jdbcTemplate, sharding.getBuckets(), sharding.getPlacementRefreshInterval());
+    }
+
+    private static void rejectUnshardedFeatures(TripServiceProperties properties) {
+        List<String> unsupported = new ArrayList<>();
+        if (properties.getLookupMode() == TripServiceProperties.LookupMode.READ_MODEL) {
+            unsupported.add("trips.lookup-mode=read-model");
+        }
+        if (properties.getTripListCache().isEnabled()) {
+            unsupported.add("trips.trip-list-cache.enabled");
+        }
+        if (properties.getReactive().isEnabled()) {
+            unsupported.add("trips.reactive.enabled");
+        }
+        if (!unsupported.isEmpty()) {
+            throw new IllegalStateException("trips.sharding.enabled cannot be combined with " + String.join(", ", unsupported)
+                    + ": they read from the application's own database, which holds no trips when sharded");
+        }
+    }
+
+    @Bean
+    @Primary
+    ShardedUserRepository shardedUserRepository(ShardRouter shardRouter, JdbcTemplate jdbcTemplate) {
+        return new ShardedUserRepository(shardRouter, jdbcTemplate);
+    }
+
+    @Bean
+    @Primary
+    ShardedTripRepository shardedTripRepository(ShardRouter shardRouter, JdbcTemplate jdbcTemplate) {
+        return new ShardedTripRepository(shardRouter, jdbcTemplate);
+    }
+
+    @Bean
+    ShardRebalancer shardRebalancer(ShardRouter shardRouter) {
+        return new ShardRebalancer(shardRouter);
+    }
+}
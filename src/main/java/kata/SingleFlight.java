@@ -0,0 +1,70 @@
+package kata;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lets concurrent callers asking for the same key share one execution: the first caller runs the
+ * call, everyone arriving while it runs waits for its outcome. A failure is rethrown to every
+ * waiter as the same exception. Nothing is cached; once the call finishes, the next caller for that
+ * key starts a new one.
+ * <p>
+ * Every caller, including the one that ran the call, gets {@code copy} applied to the shared
+ * result, so callers may modify what they get back without affecting each other.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copy;
+    private final Consumer<K> onCoalesced;
+
+    public SingleFlight(UnaryOperator<V> copy, Consumer<K> onCoalesced) {
+        this.copy = copy;
+        this.onCoalesced = onCoalesced;
+    }
+
+    public V execute(K key, Call<V> call) throws Throwable {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            onCoalesced.accept(key);
+            return copy.apply(await(running));
+        }
+
+        try {
+            V result = call.call();
+            flight.complete(result);
+            return copy.apply(result);
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) throws Throwable {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Call<V> {
+
+        V call() throws Throwable;
+    }
+}
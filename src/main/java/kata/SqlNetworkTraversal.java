@@ -0,0 +1,24 @@
+package kata;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Walks the network in the database, one round trip per hop; see
+ * {@link UserRepositoryCustom#findUserIdsWithinHops(Long, int, int)}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.network", name = "traversal", havingValue = "sql", matchIfMissing = true)
+public class SqlNetworkTraversal implements NetworkTraversal {
+
+    private final UserRepository userRepository;
+
+    public SqlNetworkTraversal(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public long[] usersWithin(Long userId, int maxDepth, int maxUsers) {
+        return userRepository.findUserIdsWithinHops(userId, maxDepth, maxUsers);
+    }
+}
@@ -0,0 +1,57 @@
+package kata;
+
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jdbc.core.dialect.JdbcPostgresDialect;
+
+/**
+ * Keeps time-to-ready short for instances that are started often. The {@code fast-startup} profile
+ * turns on lazy initialization and relaxes Flyway; the README describes the Spring AOT build and
+ * the class data sharing archive that go with it.
+ */
+@Configuration(proxyBeanMethods = false)
+public class StartupConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupConfiguration.class);
+
+    /**
+     * Beans on the path of a trip lookup, created on startup even under lazy initialization, so the
+     * first request does not pay for them.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter tripLookupPath() {
+        return LazyInitializationExcludeFilter.forBeanTypes(TripController.class, TripService.class, UserService.class,
+                TripListLookup.class, FriendshipLookup.class, FriendshipFilter.class);
+    }
+
+    /**
+     * The schema is Postgres-only, so the dialect is fixed instead of detected over a connection
+     * opened on startup.
+     */
+    @Bean
+    JdbcPostgresDialect jdbcDialect() {
+        return JdbcPostgresDialect.INSTANCE;
+    }
+
+    @Bean
+    FlywayMigrationStrategy flywayMigrationStrategy(TripServiceProperties properties) {
+        return flyway -> migrate(flyway, properties.getStartup().getFlyway());
+    }
+
+    static void migrate(Flyway flyway, TripServiceProperties.FlywayOnStartup mode) {
+        switch (mode) {
+            case MIGRATE -> flyway.migrate();
+            case MIGRATE_WITHOUT_VALIDATION -> Flyway.configure()
+                    .configuration(flyway.getConfiguration())
+                    .validateOnMigrate(false)
+                    .load()
+                    .migrate();
+            case SKIP -> log.info("Skipping Flyway on startup (trips.startup.flyway=skip)");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package kata;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Exposes {@link TripService#getTripsByUser(User)} over HTTP, either as a JSON array or as
+ * newline-delimited JSON streamed while rows are still being read. Both carry an ETag derived from
+ * {@link TripService#getTripsVersionTag(User)}, so an unchanged list costs a 304 and no trip query.
+ */
+@RestController
+@RequestMapping("/users/{userId}/trips")
+public class TripController {
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final CacheControl REVALIDATE_PRIVATELY = CacheControl.noCache().cachePrivate();
+
+    private final TripService tripService;
+    private final ObjectMapper objectMapper;
+
+    public TripController(TripService tripService, ObjectMapper objectMapper) {
+        this.tripService = tripService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<Trip>> getTrips(@PathVariable Long userId, WebRequest request)
+            throws UserNotLoggedInException {
+        User user = userWithId(userId);
+        if (request.checkNotModified(versionTagOf(user))) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(REVALIDATE_PRIVATELY)
+                .body(tripService.getTripsByUser(user));
+    }
+
+    @GetMapping(produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTrips(@PathVariable Long userId, WebRequest request)
+            throws UserNotLoggedInException {
+        User user = userWithId(userId);
+        if (request.checkNotModified(versionTagOf(user))) {
+            return null;
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                tripService.streamTripsByUser(user, trip -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(trip));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UserNotLoggedInException e) {
+                throw new IllegalStateException("Logged-in user disappeared while streaming trips", e);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .cacheControl(REVALIDATE_PRIVATELY)
+                .body(body);
+    }
+
+    @ExceptionHandler(UserNotLoggedInException.class)
+    @ResponseStatus(HttpStatus.UNAUTHORIZED)
+    public void handleUserNotLoggedIn() {
+    }
+
+    private String versionTagOf(User user) throws UserNotLoggedInException {
+        return tripService.getTripsVersionTag(user)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+
+    private static User userWithId(Long userId) {
+        User user = new User();
+        user.setId(userId);
+        return user;
+    }
+}
@@ -0,0 +1,196 @@
+package kata;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.sql.DataSource;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zaxxer.hikari.HikariDataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Caches each user's trip list together with the {@code trips_version} it was read at, bounded by
+ * the total number of trips held and by time to live.
+ * <p>
+ * Every node listens on the {@code trip_list_changed} channel, which the database notifies with
+ * {@code <userId>:<trips_version>} once a transaction that changed the user's trips commits. An
+ * entry is dropped only if it is older than the notified version, so a notification that arrives
+ * after a reload already saw the change keeps the fresh entry. A load still in flight when a
+ * notification arrives is dropped as well, since it may have read the list before the change; its
+ * result still goes to the callers waiting for it but is not cached.
+ * <p>
+ * The listening connection is opened outside the pool, with the pool's settings, so it does not take
+ * a pooled connection away for as long as the application runs. Whenever it (re)connects the whole
+ * cache is cleared, since notifications sent while nobody listened are lost.
+ * <p>
+ * Lists are loaded on the calling thread, see {@link CallerThreadLoading}. Only lists loaded outside
+ * a transaction are cached, each in a transaction of its own on the primary: a list read from a
+ * replica that has not yet applied a notified change would stay cached as if it were current.
+ */
+@Component
+@ConditionalOnProperty(prefix = "trips.trip-list-cache", name = "enabled", havingValue = "true")
+public class TripListCache implements TripListLookup, SmartLifecycle {
+
+    static final String CHANNEL = "trip_list_changed";
+
+    private static final Logger log = LoggerFactory.getLogger(TripListCache.class);
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    private final AsyncCache<Long, VersionedTrips> cache;
+    private final TripQueries tripRepository;
+    private final TransactionTemplate primaryTransaction;
+    private final DataSource listenerDataSource;
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private Thread listener;
+
+    public TripListCache(TripQueries tripRepository, DataSource dataSource,
+                         PlatformTransactionManager transactionManager, TripServiceProperties properties,
+                         TripMetrics metrics) {
+        TripServiceProperties.TripListCacheSettings settings = properties.getTripListCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(settings.getMaximumTrips())
+                .weigher((Long userId, VersionedTrips trips) -> trips.trips().size() + 1)
+                .expireAfterWrite(settings.getTimeToLive())
+                .recordStats()
+                .buildAsync();
+        this.tripRepository = tripRepository;
+        // Not read-only, so outside a transaction lists are read from the primary
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.listenerDataSource = unpooled(dataSource);
+        metrics.monitor(cache.synchronous(), "trip_lists");
+    }
+
+    @Override
+    public List<Trip> tripsOf(Long userId) {
+        VersionedTrips trips = CallerThreadLoading.get(cache, userId, this::load);
+        return trips == null ? new ArrayList<>() : new ArrayList<>(trips.trips());
+    }
+
+    /**
+     * Drops the user's entry unless it was read at {@code version} or later.
+     */
+    public void onTripListChanged(long userId, long version) {
+        cache.asMap().computeIfPresent(userId, (id, entry) -> isOlderThan(entry, version) ? null : entry);
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    /**
+     * {@code true} once the notification connection is listening; changes committed before that
+     * may not reach this node's cache.
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    private VersionedTrips load(Long userId) {
+        return primaryTransaction.execute(status -> tripRepository.findVersionedTripsByUser(userId)
+                .map(loaded -> new VersionedTrips(loaded.version(), List.copyOf(loaded.trips())))
+                .orElse(null));
+    }
+
+    private static DataSource unpooled(DataSource dataSource) {
+        try {
+            HikariDataSource pool = dataSource.unwrap(HikariDataSource.class);
+            return new DriverManagerDataSource(pool.getJdbcUrl(), pool.getUsername(), pool.getPassword());
+        } catch (SQLException e) {
+            throw new IllegalStateException("The trip list cache copies its listening connection's settings from a Hikari pool", e);
+        }
+    }
+
+    private static boolean isOlderThan(CompletableFuture<VersionedTrips> entry, long version) {
+        if (!entry.isDone() || entry.isCompletedExceptionally()) {
+            return true;
+        }
+        VersionedTrips trips = entry.join();
+        return trips == null || trips.version() < version;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listener = Thread.ofVirtual().name("trip-list-listener").start(this::listen);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            listener.join(RECONNECT_DELAY.plusMillis(POLL_TIMEOUT_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = listenerDataSource.getConnection()) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                invalidateAll();
+                listening = true;
+                try {
+                    while (running) {
+                        PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                        if (notifications != null) {
+                            for (PGNotification notification : notifications) {
+                                onNotification(notification.getParameter());
+                            }
+                        }
+                    }
+                } finally {
+                    listening = false;
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("UNLISTEN " + CHANNEL);
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Lost the {} notification connection, reconnecting", CHANNEL, e);
+                    pauseBeforeReconnect();
+                }
+            }
+        }
+    }
+
+    private void onNotification(String payload) {
+        int separator = payload.indexOf(':');
+        onTripListChanged(Long.parseLong(payload.substring(0, separator)), Long.parseLong(payload.substring(separator + 1)));
+    }
+
+    private void pauseBeforeReconnect() {
+        try {
+            Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * Returns the trips of one user, without any visibility check.
+ * Which implementation backs {@link TripService} is chosen with {@code trips.trip-list-cache.enabled}.
+ */
+public interface TripListLookup {
+
+    List<Trip> tripsOf(Long userId);
+}
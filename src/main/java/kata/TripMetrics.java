@@ -0,0 +1,135 @@
+package kata;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * Domain meters for the trip lookup path. Latencies are timed separately: {@code @Timed} on the
+ * service methods, Spring Data's {@code spring.data.repository.invocations} for every repository
+ * query, and the Hikari pool meters Spring Boot registers on its own.
+ */
+@Component
+public class TripMetrics {
+
+    private final MeterRegistry registry;
+    private final DistributionSummary friendListSize;
+    private final Counter friendOutcomes;
+    private final Counter notFriendOutcomes;
+
+    public TripMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.friendListSize = DistributionSummary.builder("trips.friend.list.size")
+                .description("Friends of the logged-in user, per friendship check that needed the list")
+                .baseUnit("friends")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.friendOutcomes = friendshipChecks("friend");
+        this.notFriendOutcomes = friendshipChecks("not_friend");
+    }
+
+    private Counter friendshipChecks(String outcome) {
+        return Counter.builder("trips.friendship.checks")
+                .description("Friendship checks guarding another user's trips, by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    public void recordFriendListSize(int size) {
+        friendListSize.record(size);
+    }
+
+    public void recordFriendshipCheck(boolean friends) {
+        (friends ? friendOutcomes : notFriendOutcomes).increment();
+    }
+
+    public void recordCoalescedCall(String method) {
+        Counter.builder("trips.repository.coalesced")
+                .description("Repository reads that shared another caller's in-flight query instead of running their own")
+                .tag("method", method)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records a trip fetch forked by {@link ParallelTripLookup}, by whether its trips were used,
+     * discarded after it finished, cancelled while it ran or skipped before it started. The
+     * durations of the unused ones are the database time spent on speculation.
+     */
+    public void recordParallelTripFetch(String outcome, long nanos) {
+        Timer.builder("trips.parallel.fetches")
+                .description("Trip fetches run alongside the friendship check, by what became of them")
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records how much sooner a friend's trips were returned than if the friendship check and the
+     * trip fetch had run one after the other.
+     */
+    public void recordParallelOverlap(long nanos) {
+        Timer.builder("trips.parallel.saved")
+                .description("Latency saved by overlapping the friendship check with the trip fetch")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordReadRouting(String target, String reason) {
+        Counter.builder("trips.datasource.reads")
+                .description("Read-only transactions by the database they were routed to and why")
+                .tag("target", target)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Publishes how old the replica's data is, or NaN while it cannot be reached.
+     */
+    public void monitor(ReplicaLagMonitor monitor) {
+        Gauge.builder("trips.replica.staleness", monitor,
+                        m -> m.staleness().map(staleness -> staleness.toNanos() / 1e9).orElse(Double.NaN))
+                .description("Age of the replica's data, measured through the replication heartbeat")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * Publishes hit, miss, load and eviction meters for the given cache under {@code cache=name}.
+     */
+    public void monitor(Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(registry, cache, name);
+    }
+
+    /**
+     * Publishes the friendship filter's memory, its configured and estimated false-positive rate,
+     * and how many checks it rejected.
+     */
+    public void monitor(BloomFriendshipFilter filter, double configuredFalsePositiveRate) {
+        Gauge.builder("trips.friendship.filter.size", filter, BloomFriendshipFilter::sizeInBytes)
+                .description("Memory held by the friendship filter")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("trips.friendship.filter.false.positive.rate", filter, BloomFriendshipFilter::estimatedFalsePositiveRate)
+                .description("False-positive rate expected at the filter's current number of friendships")
+                .tag("rate", "estimated")
+                .register(registry);
+        Gauge.builder("trips.friendship.filter.false.positive.rate", () -> configuredFalsePositiveRate)
+                .description("False-positive rate the filter was sized for (trips.friendship-filter.false-positive-rate)")
+                .tag("rate", "configured")
+                .register(registry);
+        FunctionCounter.builder("trips.friendship.filter.rejections", filter, BloomFriendshipFilter::rejections)
+                .description("Friendship checks answered by the filter without a query")
+                .register(registry);
+    }
+}
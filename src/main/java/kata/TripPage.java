@@ -0,0 +1,14 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * One page of a user's trips ordered by trip id. {@code nextCursor} is passed back as
+ * {@code afterTripId} to fetch the following page and is {@code null} on the last page.
+ */
+public record TripPage(List<Trip> trips, Long nextCursor) {
+
+    public static TripPage empty() {
+        return new TripPage(List.of(), null);
+    }
+}
@@ -0,0 +1,17 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * The trip reads the application makes, without {@link TripRepository}'s generic CRUD methods.
+ * Code on the lookup path depends on this, so a {@link ShardedTripRepository} can stand in for the
+ * Spring Data repository without offering writes it cannot place on a shard.
+ */
+public interface TripQueries extends TripRepositoryCustom {
+
+    List<Trip> findTripsByUserVisibleTo(Long userId, Long viewerId);
+
+    List<Trip> findTripsByUserFromReadModel(Long userId, Long viewerId);
+
+    List<Trip> findTripsByUserAfter(Long userId, Long afterTripId, int limit);
+}
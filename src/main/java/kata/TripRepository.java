@@ -7,10 +7,35 @@ import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
+/**
+ * The Spring Data repository over the application's own database. Reads are declared on
+ * {@link TripQueries}; {@link TripRepositoryCustom} is listed here as well because Spring Data only
+ * looks up fragment implementations of direct superinterfaces.
+ */
 @Repository
-public interface TripRepository extends CrudRepository<Trip, Long> {
+public interface TripRepository extends CrudRepository<Trip, Long>, TripRepositoryCustom, TripQueries {
 
-    @Query("SELECT t.* FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = :userId")
-    List<Trip> findTripsByUser(@Param("userId") Long userId);
+    @Query("""
+            SELECT t.* FROM trip t JOIN user_trip ut ON t.id = ut.trip_id
+            WHERE ut.user_id = :userId
+              AND EXISTS (SELECT 1 FROM friendship f
+                          WHERE f.user_low = LEAST(:viewerId, :userId) AND f.user_high = GREATEST(:viewerId, :userId))
+            """)
+    List<Trip> findTripsByUserVisibleTo(@Param("userId") Long userId, @Param("viewerId") Long viewerId);
+
+    @Query("""
+            SELECT t.* FROM visible_trip v JOIN trip t ON t.id = v.trip_id
+            WHERE v.viewer_id = :viewerId AND v.owner_id = :userId
+            """)
+    List<Trip> findTripsByUserFromReadModel(@Param("userId") Long userId, @Param("viewerId") Long viewerId);
+
+    @Query("""
+            SELECT t.* FROM trip t JOIN user_trip ut ON t.id = ut.trip_id
+            WHERE ut.user_id = :userId AND ut.trip_id > :afterTripId
+            ORDER BY ut.trip_id
+            LIMIT :limit
+            """)
+    List<Trip> findTripsByUserAfter(@Param("userId") Long userId, @Param("afterTripId") Long afterTripId,
+                                    @Param("limit") int limit);
 
 }
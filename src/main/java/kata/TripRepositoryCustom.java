@@ -0,0 +1,50 @@
+package kata;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Trip queries that need plain JDBC rather than Spring Data's {@code @Query} support.
+ */
+public interface TripRepositoryCustom {
+
+    /**
+     * Fetches the user's trips. Mapped by hand, as the most frequent query on the trip lookup path.
+     */
+    List<Trip> findTripsByUser(Long userId);
+
+    /**
+     * Fetches the trips of all given users in one round trip, keyed by user id.
+     * Users without trips are absent from the returned map.
+     */
+    Map<Long, List<Trip>> findTripsByUsers(Collection<Long> userIds);
+
+    /**
+     * Fetches the user's trips and {@code trips_version} in one statement, so both come from the
+     * same snapshot. Empty if the user does not exist.
+     */
+    Optional<VersionedTrips> findVersionedTripsByUser(Long userId);
+
+    /**
+     * Fetches at most {@code limit} distinct trips of the given users in one round trip, trips of
+     * users earlier in the array first.
+     */
+    List<Trip> findTripsByUsersInOrder(long[] userIds, int limit);
+
+    /**
+     * Fetches the newest {@code limit} feed entries of the given owners that come after the cursor
+     * ({@code null} for the first page), in {@link FeedEntry#NEWEST_FIRST} order. Each owner's trips
+     * are read newest first from an index and at most {@code limit} of them, so an owner's full
+     * trip list is never loaded.
+     */
+    List<FeedEntry> findFeedEntries(long[] ownerIds, FeedCursor after, int limit);
+
+    /**
+     * Streams the user's trips ordered by id, fetching rows from the database in chunks. Chunked
+     * fetching only happens inside a transaction, and the stream must be closed by the caller.
+     */
+    Stream<Trip> streamTripsByUser(Long userId);
+}
@@ -0,0 +1,154 @@
+package kata;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+public class TripRepositoryCustomImpl implements TripRepositoryCustom {
+
+    private static final int STREAMING_FETCH_SIZE = 1_000;
+
+    private static final String FEED_QUERY = """
+            SELECT recent.user_id, t.id, t.name, recent.trip_created_at
+            FROM unnest(?::bigint[]) AS owners (id)
+            CROSS JOIN LATERAL (
+                SELECT ut.user_id, ut.trip_id, ut.trip_created_at
+                FROM user_trip ut
+                WHERE ut.user_id = owners.id%s
+                ORDER BY ut.trip_created_at DESC, ut.trip_id DESC
+                LIMIT ?
+            ) recent
+            JOIN trip t ON t.id = recent.trip_id
+            ORDER BY recent.trip_created_at DESC, recent.trip_id DESC, recent.user_id DESC
+            LIMIT ?
+            """;
+
+    // The first comparison bounds the index scan, the second skips the cursor's own position
+    private static final String AFTER_CURSOR = " AND (ut.trip_created_at, ut.trip_id) <= (?, ?)"
+            + " AND (ut.trip_created_at, ut.trip_id, ut.user_id) < (?, ?, ?)";
+
+    // Reads columns by position and calls the record constructor directly, skipping Spring Data's
+    // reflective entity mapping
+    private static final RowMapper<Trip> TRIP = (rs, rowNum) -> new Trip(rs.getLong(1), rs.getString(2));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public TripRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcClient = JdbcClient.create(jdbcTemplate);
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+    }
+
+    @Override
+    public List<Trip> findTripsByUser(Long userId) {
+        return jdbcClient.sql("SELECT t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = ?")
+                .param(userId)
+                .query(TRIP)
+                .list();
+    }
+
+    @Override
+    public Map<Long, List<Trip>> findTripsByUsers(Collection<Long> userIds) {
+        Map<Long, List<Trip>> tripsByUser = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return tripsByUser;
+        }
+
+        jdbcTemplate.query(
+                "SELECT ut.user_id, t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = ANY(?)",
+                (RowCallbackHandler) rs -> tripsByUser
+                        .computeIfAbsent(rs.getLong("user_id"), userId -> new ArrayList<>())
+                        .add(new Trip(rs.getLong("id"), rs.getString("name"))),
+                (Object) userIds.toArray(Long[]::new));
+        return tripsByUser;
+    }
+
+    @Override
+    public Optional<VersionedTrips> findVersionedTripsByUser(Long userId) {
+        return jdbcTemplate.query(
+                """
+                SELECT u.trips_version, t.id, t.name
+                FROM user_table u
+                LEFT JOIN user_trip ut ON ut.user_id = u.id
+                LEFT JOIN trip t ON t.id = ut.trip_id
+                WHERE u.id = ?
+                """,
+                rs -> {
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+                    long version = rs.getLong("trips_version");
+                    List<Trip> trips = new ArrayList<>();
+                    do {
+                        long tripId = rs.getLong("id");
+                        if (!rs.wasNull()) {
+                            trips.add(new Trip(tripId, rs.getString("name")));
+                        }
+                    } while (rs.next());
+                    return Optional.of(new VersionedTrips(version, trips));
+                },
+                userId);
+    }
+
+    @Override
+    public List<Trip> findTripsByUsersInOrder(long[] userIds, int limit) {
+        if (userIds.length == 0) {
+            return new ArrayList<>();
+        }
+
+        return jdbcTemplate.query(
+                """
+                SELECT t.id, t.name
+                FROM unnest(?::bigint[]) WITH ORDINALITY AS u (user_id, position)
+                JOIN user_trip ut ON ut.user_id = u.user_id
+                JOIN trip t ON t.id = ut.trip_id
+                GROUP BY t.id, t.name
+                ORDER BY min(u.position), t.id
+                LIMIT ?
+                """,
+                (rs, rowNum) -> new Trip(rs.getLong("id"), rs.getString("name")),
+                Arrays.stream(userIds).boxed().toArray(Long[]::new), limit);
+    }
+
+    @Override
+    public List<FeedEntry> findFeedEntries(long[] ownerIds, FeedCursor after, int limit) {
+        if (ownerIds.length == 0) {
+            return new ArrayList<>();
+        }
+
+        RowMapper<FeedEntry> rowMapper = (rs, rowNum) -> new FeedEntry(
+                rs.getLong("user_id"),
+                new Trip(rs.getLong("id"), rs.getString("name")),
+                rs.getObject("trip_created_at", LocalDateTime.class));
+        Long[] owners = Arrays.stream(ownerIds).boxed().toArray(Long[]::new);
+        if (after == null) {
+            return jdbcTemplate.query(FEED_QUERY.formatted(""), rowMapper, owners, limit, limit);
+        }
+        Timestamp createdAt = Timestamp.valueOf(after.createdAt());
+        return jdbcTemplate.query(FEED_QUERY.formatted(AFTER_CURSOR), rowMapper, owners,
+                createdAt, after.tripId(), createdAt, after.tripId(), after.ownerId(), limit, limit);
+    }
+
+    @Override
+    public Stream<Trip> streamTripsByUser(Long userId) {
+        return streamingJdbcTemplate.queryForStream(
+                "SELECT t.id, t.name FROM trip t JOIN user_trip ut ON t.id = ut.trip_id WHERE ut.user_id = ? ORDER BY ut.trip_id",
+                (rs, rowNum) -> new Trip(rs.getLong("id"), rs.getString("name")),
+                userId);
+    }
+}
@@ -1,37 +1,284 @@
 package kata;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class TripService {
 
-    private final TripRepository tripRepository;
+    private final TripQueries tripRepository;
+    private final TripListLookup tripListLookup;
     private final UserRepository userRepository;
     private final UserService userService;
+    private final FriendshipLookup friendshipLookup;
+    private final FriendshipFilter friendshipFilter;
+    private final NetworkTraversal networkTraversal;
+    private final ParallelTripLookup parallelTripLookup;
+    private final TransactionTemplate readOnlyTransaction;
+    private final TripServiceProperties properties;
+    private final TripMetrics metrics;
 
     @Autowired
-    public TripService(TripRepository tripRepository, UserRepository userRepository, UserService userService) {
+    public TripService(TripQueries tripRepository, TripListLookup tripListLookup, UserRepository userRepository,
+                       UserService userService, FriendshipLookup friendshipLookup, FriendshipFilter friendshipFilter,
+                       NetworkTraversal networkTraversal, ParallelTripLookup parallelTripLookup,
+                       PlatformTransactionManager transactionManager, TripServiceProperties properties,
+                       TripMetrics metrics) {
         this.tripRepository = tripRepository;
+        this.tripListLookup = tripListLookup;
         this.userRepository = userRepository;
         this.userService = userService;
+        this.friendshipLookup = friendshipLookup;
+        this.friendshipFilter = friendshipFilter;
+        this.networkTraversal = networkTraversal;
+        this.parallelTripLookup = parallelTripLookup;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.properties = properties;
+        this.metrics = metrics;
     }
 
+    /**
+     * The friendship check and the trip list lookup run outside any transaction of this method: a
+     * caller holding a connection while it waits for a cache load or a forked fetch to get one
+     * could exhaust the pool. Lookups that query the database open a read-only transaction of
+     * their own; see also {@link CallerThreadLoading}.
+     */
+    @Timed(value = "trips.lookup", description = "Time to return the trips of another user", histogram = true)
     public List<Trip> getTripsByUser(User user) throws UserNotLoggedInException {
-        List<Trip> tripList = new ArrayList<>();
         User loggedUser = userService.getCurrentUser();
-        
-        List<User> friends = userRepository.findFriendsByUserId(loggedUser.getId());
-        boolean isFriend = friends.stream()
-                .anyMatch(friend -> friend.getId().equals(user.getId()));
-        
-        if (isFriend) {
-            tripList = tripRepository.findTripsByUser(user.getId());
+
+        TripServiceProperties.LookupMode lookupMode = properties.getLookupMode();
+        if (lookupMode != TripServiceProperties.LookupMode.FRIEND_LIST
+                && !friendshipFilter.mightBeFriends(loggedUser.getId(), user.getId())) {
+            metrics.recordFriendshipCheck(false);
+            return new ArrayList<>();
+        }
+        if (lookupMode == TripServiceProperties.LookupMode.PARALLEL) {
+            return parallelTripLookup.tripsIfFriends(user.getId(), () -> checkFriendship(loggedUser, user));
+        }
+        if (lookupMode == TripServiceProperties.LookupMode.SINGLE_QUERY) {
+            return recordingFriendship(readOnlyTransaction.execute(status ->
+                    tripRepository.findTripsByUserVisibleTo(user.getId(), loggedUser.getId())));
+        }
+        if (lookupMode == TripServiceProperties.LookupMode.READ_MODEL) {
+            return recordingFriendship(readOnlyTransaction.execute(status ->
+                    tripRepository.findTripsByUserFromReadModel(user.getId(), loggedUser.getId())));
+        }
+
+        List<Trip> tripList = new ArrayList<>();
+        if (isFriend(loggedUser, user)) {
+            tripList = tripListLookup.tripsOf(user.getId());
         }
         return tripList;
     }
 
+    /**
+     * Batch counterpart of {@link #getTripsByUser(User)}: one friendship query and one trip query
+     * for the whole batch, however many users it contains. Every requested user id is present in
+     * the result; users the logged-in user may not see map to an empty list.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, List<Trip>> getTripsByUsers(Collection<User> users) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+
+        Set<Long> userIds = new LinkedHashSet<>();
+        users.forEach(user -> userIds.add(user.getId()));
+
+        Set<Long> friendIds = userRepository.findFriendIdsAmong(loggedUser.getId(), userIds);
+        Map<Long, List<Trip>> friendsTrips = friendIds.isEmpty()
+                ? Map.of()
+                : tripRepository.findTripsByUsers(friendIds);
+
+        Map<Long, List<Trip>> tripsByUser = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            tripsByUser.put(userId, friendsTrips.getOrDefault(userId, new ArrayList<>()));
+        }
+        return tripsByUser;
+    }
+
+    /**
+     * Keyset-paginated variant of {@link #getTripsByUser(User)}: returns at most {@code limit} trips
+     * with an id greater than {@code afterTripId} ({@code null} for the first page). A {@code limit}
+     * below one returns an empty page.
+     */
+    public TripPage getTripPageByUser(User user, Long afterTripId, int limit) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+        if (limit < 1 || !isFriend(loggedUser, user)) {
+            return TripPage.empty();
+        }
+
+        List<Trip> trips = readOnlyTransaction.execute(status ->
+                tripRepository.findTripsByUserAfter(user.getId(), afterTripId == null ? 0L : afterTripId, limit + 1));
+        if (trips.size() <= limit) {
+            return new TripPage(trips, null);
+        }
+        List<Trip> page = trips.subList(0, limit);
+        return new TripPage(page, page.get(limit - 1).id());
+    }
+
+    /**
+     * Streaming variant of {@link #getTripsByUser(User)}: hands trips to the consumer as rows are read,
+     * so memory stays flat however many trips the user has.
+     */
+    public void streamTripsByUser(User user, Consumer<Trip> consumer) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+        if (!isFriend(loggedUser, user)) {
+            return;
+        }
+
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Trip> trips = tripRepository.streamTripsByUser(user.getId())) {
+                trips.forEach(consumer);
+            }
+        });
+    }
+
+    /**
+     * Trips of the users up to {@code maxDepth} friendship hops from the logged-in user, trips of
+     * nearer users first. Depth and trip count are capped by {@code trips.network.*}, and at most
+     * {@code trips.network.max-users} users are visited.
+     */
+    @Transactional(readOnly = true)
+    public List<Trip> getNetworkTrips(int maxDepth, int maxTrips) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+
+        TripServiceProperties.NetworkSettings network = properties.getNetwork();
+        int depth = Math.min(maxDepth, network.getMaxDepth());
+        int limit = Math.min(maxTrips, network.getMaxTrips());
+        if (depth < 1 || limit < 1) {
+            return new ArrayList<>();
+        }
+
+        long[] userIds = networkTraversal.usersWithin(loggedUser.getId(), depth, network.getMaxUsers());
+        return tripRepository.findTripsByUsersInOrder(userIds, limit);
+    }
+
+    /**
+     * The logged-in user's friends' trips, newest first, {@code limit} at a time (capped by
+     * {@code trips.feed.max-page-size}). Pass the previous page's {@code nextCursor} as
+     * {@code after}, or {@code null} for the first page.
+     * <p>
+     * One query covers up to {@code trips.feed.friend-chunk-size} friends. Friends beyond that are
+     * queried chunk by chunk, each returning its own newest entries, and the sorted chunk pages are
+     * merged. Memory holds at most one page per chunk, never a friend's full trip list.
+     */
+    @Transactional(readOnly = true)
+    public FeedPage getFeed(FeedCursor after, int limit) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+
+        TripServiceProperties.FeedSettings feed = properties.getFeed();
+        int pageSize = Math.min(limit, feed.getMaxPageSize());
+        long[] friendIds = userRepository.findFriendIdsByUserId(loggedUser.getId());
+        if (pageSize < 1 || friendIds.length == 0) {
+            return FeedPage.empty();
+        }
+
+        int chunkSize = feed.getFriendChunkSize();
+        List<FeedEntry> entries;
+        if (friendIds.length <= chunkSize) {
+            entries = tripRepository.findFeedEntries(friendIds, after, pageSize + 1);
+        } else {
+            List<List<FeedEntry>> chunkPages = new ArrayList<>();
+            for (int from = 0; from < friendIds.length; from += chunkSize) {
+                long[] chunk = Arrays.copyOfRange(friendIds, from, Math.min(from + chunkSize, friendIds.length));
+                chunkPages.add(tripRepository.findFeedEntries(chunk, after, pageSize + 1));
+            }
+            entries = mergeNewestFirst(chunkPages, pageSize + 1);
+        }
+
+        if (entries.size() <= pageSize) {
+            return new FeedPage(entries, null);
+        }
+        List<FeedEntry> page = entries.subList(0, pageSize);
+        return new FeedPage(page, page.get(pageSize - 1).cursor());
+    }
+
+    /**
+     * K-way merge of lists that are each sorted {@link FeedEntry#NEWEST_FIRST}, stopping after
+     * {@code limit} entries.
+     */
+    private static List<FeedEntry> mergeNewestFirst(List<List<FeedEntry>> sortedLists, int limit) {
+        PriorityQueue<MergeHead> heads = new PriorityQueue<>(
+                Comparator.comparing(MergeHead::entry, FeedEntry.NEWEST_FIRST));
+        for (List<FeedEntry> list : sortedLists) {
+            if (!list.isEmpty()) {
+                heads.add(new MergeHead(list, 0));
+            }
+        }
+
+        List<FeedEntry> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heads.isEmpty()) {
+            MergeHead head = heads.poll();
+            merged.add(head.entry());
+            if (head.position() + 1 < head.list().size()) {
+                heads.add(new MergeHead(head.list(), head.position() + 1));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Cheap tag that changes whenever {@link #getTripsByUser(User)} would return a different list for
+     * the logged-in user, without loading any trips. Empty if the user does not exist.
+     */
+    public Optional<String> getTripsVersionTag(User user) throws UserNotLoggedInException {
+        User loggedUser = userService.getCurrentUser();
+        Optional<Long> version = readOnlyTransaction.execute(status -> userRepository.findTripsVersion(user.getId()));
+        if (version.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(isFriend(loggedUser, user) ? "v" + version.get() : "hidden");
+    }
+
+    private boolean isFriend(User loggedUser, User user) {
+        if (!friendshipFilter.mightBeFriends(loggedUser.getId(), user.getId())) {
+            metrics.recordFriendshipCheck(false);
+            return false;
+        }
+        return checkFriendship(loggedUser, user);
+    }
+
+    /**
+     * {@link #isFriend(User, User)} for callers that have already asked the {@link FriendshipFilter}.
+     */
+    private boolean checkFriendship(User loggedUser, User user) {
+        boolean friends = friendshipLookup.areFriends(loggedUser.getId(), user.getId());
+        metrics.recordFriendshipCheck(friends);
+        return friends;
+    }
+
+    /**
+     * Records the outcome of a friendship check folded into the trip query. Such a query cannot tell
+     * a friend without trips from a stranger, so that friend counts as {@code not_friend}.
+     */
+    private List<Trip> recordingFriendship(List<Trip> visibleTrips) {
+        metrics.recordFriendshipCheck(!visibleTrips.isEmpty());
+        return visibleTrips;
+    }
+
+    private record MergeHead(List<FeedEntry> list, int position) {
+
+        FeedEntry entry() {
+            return list.get(position);
+        }
+    }
 }
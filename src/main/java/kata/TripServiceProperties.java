@@ -0,0 +1,698 @@
+package kata;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("trips")
+public class TripServiceProperties {
+
+    /**
+     * How {@link TripService} decides whether the logged-in user may see another user's trips.
+     */
+    private LookupMode lookupMode = LookupMode.FRIEND_LIST;
+
+    /**
+     * Where the {@link LookupMode#FRIEND_LIST} path gets friendships from.
+     */
+    private FriendshipSource friendshipSource = FriendshipSource.REPOSITORY;
+
+    private final FriendCacheSettings friendCache = new FriendCacheSettings();
+
+    private final FriendshipGraphSettings friendshipGraph = new FriendshipGraphSettings();
+
+    private final CurrentUserSettings currentUser = new CurrentUserSettings();
+
+    private final BulkImportSettings bulkImport = new BulkImportSettings();
+
+    private final NetworkSettings network = new NetworkSettings();
+
+    private final FeedSettings feed = new FeedSettings();
+
+    private final FriendshipFilterSettings friendshipFilter = new FriendshipFilterSettings();
+
+    private final CoalescingSettings coalescing = new CoalescingSettings();
+
+    private final TripListCacheSettings tripListCache = new TripListCacheSettings();
+
+    private final ReplicaSettings replica = new ReplicaSettings();
+
+    private final ShardingSettings sharding = new ShardingSettings();
+
+    private final ReactiveSettings reactive = new ReactiveSettings();
+
+    private final StartupSettings startup = new StartupSettings();
+
+    public LookupMode getLookupMode() {
+        return lookupMode;
+    }
+
+    public void setLookupMode(LookupMode lookupMode) {
+        this.lookupMode = lookupMode;
+    }
+
+    public FriendshipSource getFriendshipSource() {
+        return friendshipSource;
+    }
+
+    public void setFriendshipSource(FriendshipSource friendshipSource) {
+        this.friendshipSource = friendshipSource;
+    }
+
+    public FriendCacheSettings getFriendCache() {
+        return friendCache;
+    }
+
+    public FriendshipGraphSettings getFriendshipGraph() {
+        return friendshipGraph;
+    }
+
+    public CurrentUserSettings getCurrentUser() {
+        return currentUser;
+    }
+
+    public BulkImportSettings getBulkImport() {
+        return bulkImport;
+    }
+
+    public NetworkSettings getNetwork() {
+        return network;
+    }
+
+    public FeedSettings getFeed() {
+        return feed;
+    }
+
+    public FriendshipFilterSettings getFriendshipFilter() {
+        return friendshipFilter;
+    }
+
+    public CoalescingSettings getCoalescing() {
+        return coalescing;
+    }
+
+    public TripListCacheSettings getTripListCache() {
+        return tripListCache;
+    }
+
+    public ReplicaSettings getReplica() {
+        return replica;
+    }
+
+    public ShardingSettings getSharding() {
+        return sharding;
+    }
+
+    public ReactiveSettings getReactive() {
+        return reactive;
+    }
+
+    public StartupSettings getStartup() {
+        return startup;
+    }
+
+    public enum LookupMode {
+        /**
+         * Load the logged-in user's friends, check membership, then fetch the trips (two round trips).
+         */
+        FRIEND_LIST,
+        /**
+         * Fetch the trips with the friendship check folded into the same SQL statement (one round trip).
+         */
+        SINGLE_QUERY,
+        /**
+         * Read the trips from the trigger-maintained {@code visible_trip} projection
+         * ({@link VisibleTripsReadModel}), which is enabled on startup when this mode is selected.
+         */
+        READ_MODEL,
+        /**
+         * Like {@link #FRIEND_LIST}, but fetch the trips while the friendship is checked and cancel
+         * the fetch if the check fails ({@link ParallelTripLookup}). Two round trips that overlap,
+         * on two connections.
+         */
+        PARALLEL
+    }
+
+    public enum FriendshipSource {
+        /**
+         * Query the friend list on every check ({@link RepositoryFriendshipLookup}).
+         */
+        REPOSITORY,
+        /**
+         * Keep friend id sets in memory ({@link FriendCache}).
+         */
+        CACHE,
+        /**
+         * Keep the whole friendship graph in memory ({@link FriendshipGraph}).
+         */
+        GRAPH
+    }
+
+    public enum NetworkTraversalStrategy {
+        /**
+         * Recursive CTE over {@code user_friends} ({@link SqlNetworkTraversal}).
+         */
+        SQL,
+        /**
+         * Breadth-first search over the in-memory graph ({@link GraphNetworkTraversal}); needs
+         * {@link FriendshipSource#GRAPH}.
+         */
+        GRAPH
+    }
+
+    public enum FlywayOnStartup {
+        /**
+         * Validate the applied migrations against the bundled scripts, then apply pending ones.
+         */
+        MIGRATE,
+        /**
+         * Apply pending migrations without checking the ones already applied.
+         */
+        MIGRATE_WITHOUT_VALIDATION,
+        /**
+         * Leave the schema alone, for instances that another instance or the deployment migrates for.
+         */
+        SKIP
+    }
+
+    public static class FriendCacheSettings {
+
+        /**
+         * Upper bound on friend ids held across all cached users; each id costs eight bytes.
+         */
+        private long maximumFriendIds = 10_000_000;
+
+        /**
+         * How long a friend list is served from memory before it is reloaded.
+         */
+        private Duration timeToLive = Duration.ofMinutes(10);
+
+        public long getMaximumFriendIds() {
+            return maximumFriendIds;
+        }
+
+        public void setMaximumFriendIds(long maximumFriendIds) {
+            this.maximumFriendIds = maximumFriendIds;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    public static class FriendshipGraphSettings {
+
+        /**
+         * Number of pending edge changes after which they are merged into the compressed graph.
+         */
+        private int compactionThreshold = 10_000;
+
+        public int getCompactionThreshold() {
+            return compactionThreshold;
+        }
+
+        public void setCompactionThreshold(int compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+        }
+    }
+
+    public static class CurrentUserSettings {
+
+        /**
+         * Build the logged-in user from the authenticated principal instead of reloading it from
+         * {@code user_table} on every call.
+         */
+        private boolean trustPrincipal = false;
+
+        /**
+         * Reload the logged-in user at most once per HTTP request.
+         */
+        private boolean memoizePerRequest = false;
+
+        public boolean isTrustPrincipal() {
+            return trustPrincipal;
+        }
+
+        public void setTrustPrincipal(boolean trustPrincipal) {
+            this.trustPrincipal = trustPrincipal;
+        }
+
+        public boolean isMemoizePerRequest() {
+            return memoizePerRequest;
+        }
+
+        public void setMemoizePerRequest(boolean memoizePerRequest) {
+            this.memoizePerRequest = memoizePerRequest;
+        }
+    }
+
+    public static class BulkImportSettings {
+
+        /**
+         * Rows staged through COPY before they are merged and committed.
+         */
+        private int batchSize = 50_000;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class NetworkSettings {
+
+        /**
+         * How the users in someone's network are found.
+         */
+        private NetworkTraversalStrategy traversal = NetworkTraversalStrategy.SQL;
+
+        /**
+         * Upper bound on the hops a caller may ask for; friends are one hop away.
+         */
+        private int maxDepth = 3;
+
+        /**
+         * Users collected before the traversal stops, nearest first.
+         */
+        private int maxUsers = 10_000;
+
+        /**
+         * Upper bound on the trips a caller may ask for.
+         */
+        private int maxTrips = 500;
+
+        public NetworkTraversalStrategy getTraversal() {
+            return traversal;
+        }
+
+        public void setTraversal(NetworkTraversalStrategy traversal) {
+            this.traversal = traversal;
+        }
+
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public void setMaxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+        }
+
+        public int getMaxUsers() {
+            return maxUsers;
+        }
+
+        public void setMaxUsers(int maxUsers) {
+            this.maxUsers = maxUsers;
+        }
+
+        public int getMaxTrips() {
+            return maxTrips;
+        }
+
+        public void setMaxTrips(int maxTrips) {
+            this.maxTrips = maxTrips;
+        }
+    }
+
+    public static class FeedSettings {
+
+        /**
+         * Upper bound on the entries a caller may ask for per page.
+         */
+        private int maxPageSize = 100;
+
+        /**
+         * Friends read per feed query. Users with more friends get one query per chunk, and the
+         * chunks' pages are merged.
+         */
+        private int friendChunkSize = 1_000;
+
+        public int getMaxPageSize() {
+            return maxPageSize;
+        }
+
+        public void setMaxPageSize(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+        }
+
+        public int getFriendChunkSize() {
+            return friendChunkSize;
+        }
+
+        public void setFriendChunkSize(int friendChunkSize) {
+            this.friendChunkSize = friendChunkSize;
+        }
+    }
+
+    public static class FriendshipFilterSettings {
+
+        /**
+         * Reject trip requests from non-friends with an in-memory Bloom filter before any query runs.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Friendships the filter is sized for; memory grows linearly with it.
+         */
+        private long expectedFriendships = 10_000_000;
+
+        /**
+         * Share of non-friend checks let through to the database at the expected size.
+         */
+        private double falsePositiveRate = 0.01;
+
+        /**
+         * Removed friendships after which the filter is rebuilt; removals cannot be taken out of it.
+         */
+        private long rebuildAfterRemovals = 100_000;
+
+        /**
+         * Age after which the filter is rebuilt from the database regardless of changes.
+         */
+        private Duration rebuildInterval = Duration.ofHours(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getExpectedFriendships() {
+            return expectedFriendships;
+        }
+
+        public void setExpectedFriendships(long expectedFriendships) {
+            this.expectedFriendships = expectedFriendships;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public long getRebuildAfterRemovals() {
+            return rebuildAfterRemovals;
+        }
+
+        public void setRebuildAfterRemovals(long rebuildAfterRemovals) {
+            this.rebuildAfterRemovals = rebuildAfterRemovals;
+        }
+
+        public Duration getRebuildInterval() {
+            return rebuildInterval;
+        }
+
+        public void setRebuildInterval(Duration rebuildInterval) {
+            this.rebuildInterval = rebuildInterval;
+        }
+    }
+
+    public static class CoalescingSettings {
+
+        /**
+         * Let concurrent identical repository reads outside transactions share one query.
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class TripListCacheSettings {
+
+        /**
+         * Serve trip lists from a per-node cache kept current through database notifications.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Upper bound on trips held across all cached users.
+         */
+        private long maximumTrips = 1_000_000;
+
+        /**
+         * How long a trip list is served from memory before it is reloaded, in case a notification was missed.
+         */
+        private Duration timeToLive = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaximumTrips() {
+            return maximumTrips;
+        }
+
+        public void setMaximumTrips(long maximumTrips) {
+            this.maximumTrips = maximumTrips;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    public static class ReplicaSettings {
+
+        /**
+         * Route read-only transactions to the replica below while it is fresh enough.
+         */
+        private boolean enabled = false;
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        /**
+         * Oldest replica data a request accepts unless it sends {@code Cache-Control: max-stale}.
+         * Keep it above the lag check interval, which staleness grows by between checks.
+         */
+        private Duration maxStaleness = Duration.ofSeconds(2);
+
+        /**
+         * How often the replication heartbeat is written and read back.
+         */
+        private Duration lagCheckInterval = Duration.ofMillis(500);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public Duration getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        public void setMaxStaleness(Duration maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+
+        public Duration getLagCheckInterval() {
+            return lagCheckInterval;
+        }
+
+        public void setLagCheckInterval(Duration lagCheckInterval) {
+            this.lagCheckInterval = lagCheckInterval;
+        }
+    }
+
+    public static class ShardingSettings {
+
+        /**
+         * Spread users, their trips and their friendships over the shards below.
+         */
+        private boolean enabled = false;
+
+        /**
+         * One entry per shard; a shard's number is its position in the list.
+         */
+        private List<ShardConnection> shards = new ArrayList<>();
+
+        /**
+         * Users hash into this many buckets, the unit of placement and of rebalancing. Fixed once
+         * the first sharded node has started.
+         */
+        private int buckets = 256;
+
+        /**
+         * How often each node rereads the bucket placement, picking up moves made elsewhere.
+         */
+        private Duration placementRefreshInterval = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<ShardConnection> getShards() {
+            return shards;
+        }
+
+        public void setShards(List<ShardConnection> shards) {
+            this.shards = shards;
+        }
+
+        public int getBuckets() {
+            return buckets;
+        }
+
+        public void setBuckets(int buckets) {
+            this.buckets = buckets;
+        }
+
+        public Duration getPlacementRefreshInterval() {
+            return placementRefreshInterval;
+        }
+
+        public void setPlacementRefreshInterval(Duration placementRefreshInterval) {
+            this.placementRefreshInterval = placementRefreshInterval;
+        }
+    }
+
+    public static class ShardConnection {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+
+    public static class ReactiveSettings {
+
+        /**
+         * Offer {@link ReactiveTripService}, backed by an R2DBC pool on the application's database.
+         */
+        private boolean enabled = false;
+
+        private int maxConnections = 20;
+
+        /**
+         * Trip rows fetched per round trip while a subscriber keeps requesting more.
+         */
+        private int fetchSize = 256;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+    }
+
+    public static class StartupSettings {
+
+        /**
+         * What Flyway does with the application's database, and with each shard's, on startup.
+         */
+        private FlywayOnStartup flyway = FlywayOnStartup.MIGRATE;
+
+        public FlywayOnStartup getFlyway() {
+            return flyway;
+        }
+
+        public void setFlyway(FlywayOnStartup flyway) {
+            this.flyway = flyway;
+        }
+    }
+}
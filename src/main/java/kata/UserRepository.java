@@ -1,18 +1,30 @@
 package kata;
 
+import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends CrudRepository<User, Long> {
-
-    @Query("SELECT u.* FROM user_table u JOIN user_friends uf ON u.id = uf.friend_id WHERE uf.user_id = :userId")
-    List<User> findFriendsByUserId(@Param("userId") Long userId);
+public interface UserRepository extends CrudRepository<User, Long>, UserRepositoryCustom {
 
     Optional<User> findByUsername(String username);
+
+    /**
+     * Stores the friendship once, in canonical (lower id, higher id) order, whichever way round it is given.
+     */
+    @Modifying
+    @Query("""
+            INSERT INTO friendship (user_low, user_high)
+            VALUES (LEAST(:userId, :friendId), GREATEST(:userId, :friendId))
+            ON CONFLICT DO NOTHING
+            """)
+    void insertFriendship(@Param("userId") Long userId, @Param("friendId") Long friendId);
+
+    @Modifying
+    @Query("DELETE FROM friendship WHERE user_low = LEAST(:userId, :friendId) AND user_high = GREATEST(:userId, :friendId)")
+    void deleteFriendship(@Param("userId") Long userId, @Param("friendId") Long friendId);
 }
@@ -0,0 +1,58 @@
+package kata;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * User and friendship queries that need plain JDBC rather than Spring Data's {@code @Query} support.
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Returns the given user's friends with id and username. Mapped by hand, as the friend list is
+     * loaded on every friendship check of the default lookup.
+     */
+    List<User> findFriendsByUserId(Long userId);
+
+    /**
+     * Whether the two users are friends, answered from the friendship primary key.
+     */
+    boolean existsFriendship(Long userId, Long friendId);
+
+    /**
+     * Returns the ids of the given user's friends, sorted ascending, without boxing.
+     */
+    long[] findFriendIdsByUserId(Long userId);
+
+    /**
+     * Returns those of the candidate ids that are friends of the given user, in one round trip.
+     */
+    Set<Long> findFriendIdsAmong(Long userId, Collection<Long> candidateIds);
+
+    /**
+     * Returns the ids of at most {@code maxUsers} users within {@code maxDepth} friendship hops of
+     * the given user, nearest first, excluding the user. Evaluated one hop at a time, so no more
+     * than {@code maxUsers} users are ever expanded.
+     */
+    long[] findUserIdsWithinHops(Long userId, int maxDepth, int maxUsers);
+
+    /**
+     * Returns the user's {@code trips_version}, which changes whenever their trip list changes,
+     * or empty if the user does not exist.
+     */
+    Optional<Long> findTripsVersion(Long userId);
+
+    /**
+     * Streams every friendship once per direction, in no particular order. Rows are fetched in chunks only
+     * when called inside a transaction; otherwise the driver buffers the whole result.
+     */
+    void forEachFriendship(FriendshipConsumer consumer);
+
+    @FunctionalInterface
+    interface FriendshipConsumer {
+
+        void accept(long userId, long friendId);
+    }
+}
@@ -0,0 +1,156 @@
+package kata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private static final int STREAMING_FETCH_SIZE = 10_000;
+
+    private static final ResultSetExtractor<long[]> LONG_ARRAY = rs -> {
+        long[] ids = new long[16];
+        int count = 0;
+        while (rs.next()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = rs.getLong(1);
+        }
+        return Arrays.copyOf(ids, count);
+    };
+
+    private static final RowMapper<User> USER = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getLong(1));
+        user.setUsername(rs.getString(2));
+        return user;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public UserRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcClient = JdbcClient.create(jdbcTemplate);
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+    }
+
+    @Override
+    public List<User> findFriendsByUserId(Long userId) {
+        return jdbcClient.sql("""
+                        SELECT u.id, u.username FROM user_table u
+                        JOIN (SELECT user_high AS id FROM friendship WHERE user_low = ?
+                              UNION ALL
+                              SELECT user_low FROM friendship WHERE user_high = ?) f ON u.id = f.id
+                        """)
+                .params(userId, userId)
+                .query(USER)
+                .list();
+    }
+
+    @Override
+    public boolean existsFriendship(Long userId, Long friendId) {
+        return jdbcClient.sql(
+                        "SELECT EXISTS (SELECT 1 FROM friendship WHERE user_low = LEAST(?, ?) AND user_high = GREATEST(?, ?))")
+                .params(userId, friendId, userId, friendId)
+                .query(Boolean.class)
+                .single();
+    }
+
+    @Override
+    public long[] findFriendIdsByUserId(Long userId) {
+        return jdbcTemplate.query(
+                """
+                SELECT user_high FROM friendship WHERE user_low = ?
+                UNION ALL
+                SELECT user_low FROM friendship WHERE user_high = ?
+                ORDER BY 1
+                """,
+                LONG_ARRAY,
+                userId, userId);
+    }
+
+    @Override
+    public Set<Long> findFriendIdsAmong(Long userId, Collection<Long> candidateIds) {
+        Set<Long> friendIds = new HashSet<>();
+        if (candidateIds.isEmpty()) {
+            return friendIds;
+        }
+
+        Long[] candidates = candidateIds.toArray(Long[]::new);
+        jdbcTemplate.query(
+                """
+                SELECT user_high FROM friendship WHERE user_low = ? AND user_high = ANY(?)
+                UNION ALL
+                SELECT user_low FROM friendship WHERE user_high = ? AND user_low = ANY(?)
+                """,
+                (RowCallbackHandler) rs -> friendIds.add(rs.getLong(1)),
+                userId, candidates, userId, candidates);
+        return friendIds;
+    }
+
+    /**
+     * Breadth-first, one query per level. A recursive query cannot tell which users earlier levels
+     * already reached, so around a well-connected user it would expand the same users again and
+     * again before its final limit applied. Here each level skips the users seen so far and reads
+     * at most as many new ones as are still wanted.
+     */
+    @Override
+    public long[] findUserIdsWithinHops(Long userId, int maxDepth, int maxUsers) {
+        List<Long> seen = new ArrayList<>(List.of(userId));
+        Long[] frontier = {userId};
+        for (int depth = 1; depth <= maxDepth && frontier.length > 0 && seen.size() <= maxUsers; depth++) {
+            List<Long> level = jdbcTemplate.queryForList(
+                    """
+                    SELECT friend_id FROM (
+                        SELECT user_high AS friend_id FROM friendship WHERE user_low = ANY(?)
+                        UNION
+                        SELECT user_low FROM friendship WHERE user_high = ANY(?)
+                    ) level
+                    WHERE friend_id <> ALL(?)
+                    ORDER BY friend_id
+                    LIMIT ?
+                    """,
+                    Long.class, frontier, frontier, seen.toArray(Long[]::new), maxUsers - (seen.size() - 1));
+            seen.addAll(level);
+            frontier = level.toArray(Long[]::new);
+        }
+        return seen.stream().skip(1).mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public Optional<Long> findTripsVersion(Long userId) {
+        return jdbcTemplate.query(
+                        "SELECT trips_version FROM user_table WHERE id = ?",
+                        new SingleColumnRowMapper<>(Long.class),
+                        userId)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public void forEachFriendship(FriendshipConsumer consumer) {
+        streamingJdbcTemplate.query(
+                "SELECT user_low, user_high FROM friendship",
+                (RowCallbackHandler) rs -> {
+                    long userLow = rs.getLong(1);
+                    long userHigh = rs.getLong(2);
+                    consumer.accept(userLow, userHigh);
+                    consumer.accept(userHigh, userLow);
+                });
+    }
+}
@@ -1,27 +1,70 @@
 package kata;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 @Service
 public class UserService {
 
+    private static final String CURRENT_USER_ATTRIBUTE = UserService.class.getName() + ".currentUser";
+
     private final UserRepository userRepository;
     private final AuthenticationFacade authenticationFacade;
+    private final TripServiceProperties.CurrentUserSettings settings;
 
     @Autowired
-    public UserService(UserRepository userRepository, AuthenticationFacade authenticationFacade) {
+    public UserService(UserRepository userRepository, AuthenticationFacade authenticationFacade,
+                       TripServiceProperties properties) {
         this.userRepository = userRepository;
         this.authenticationFacade = authenticationFacade;
+        this.settings = properties.getCurrentUser();
     }
 
+    @Timed(value = "trips.current.user", description = "Time to resolve the logged-in user", histogram = true)
     public User getCurrentUser() throws UserNotLoggedInException {
         try {
             CurrentUser currentUser = authenticationFacade.getCurrentUser();
-            return userRepository.findById(currentUser.getId())
-                    .orElseThrow(UserNotLoggedInException::new);
+            if (settings.isTrustPrincipal()) {
+                return fromPrincipal(currentUser);
+            }
+            if (settings.isMemoizePerRequest()) {
+                return loadOncePerRequest(currentUser);
+            }
+            return load(currentUser);
         } catch (IllegalStateException e) {
             throw new UserNotLoggedInException();
         }
     }
+
+    private User load(CurrentUser currentUser) throws UserNotLoggedInException {
+        return userRepository.findById(currentUser.getId())
+                .orElseThrow(UserNotLoggedInException::new);
+    }
+
+    private User loadOncePerRequest(CurrentUser currentUser) throws UserNotLoggedInException {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) {
+            return load(currentUser);
+        }
+        if (request.getAttribute(CURRENT_USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof User memoized
+                && memoized.getId().equals(currentUser.getId())) {
+            return memoized;
+        }
+        User user = load(currentUser);
+        request.setAttribute(CURRENT_USER_ATTRIBUTE, user, RequestAttributes.SCOPE_REQUEST);
+        return user;
+    }
+
+    private static User fromPrincipal(CurrentUser currentUser) throws UserNotLoggedInException {
+        if (currentUser.getId() == null) {
+            throw new UserNotLoggedInException();
+        }
+        User user = new User();
+        user.setId(currentUser.getId());
+        user.setUsername(currentUser.getUsername());
+        return user;
+    }
 }
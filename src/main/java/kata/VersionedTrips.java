@@ -0,0 +1,9 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * A user's trips together with the {@code trips_version} they were read at.
+ */
+public record VersionedTrips(long version, List<Trip> trips) {
+}
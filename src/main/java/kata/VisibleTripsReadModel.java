@@ -0,0 +1,112 @@
+package kata;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Lifecycle and consistency checks for the {@code visible_trip} projection read by
+ * {@link TripServiceProperties.LookupMode#READ_MODEL}. Database triggers keep the projection in
+ * step with {@code friendship} and {@code user_trip} while it is enabled; this class switches it
+ * on and off, rebuilds it and compares it with the base tables.
+ */
+@Component
+public class VisibleTripsReadModel {
+
+    private static final String EXPECTED_ROWS = """
+            SELECT uf.user_id, uf.friend_id, ut.trip_id
+            FROM user_friends uf JOIN user_trip ut ON ut.user_id = uf.friend_id
+            """;
+
+    private static final String ACTUAL_ROWS = "SELECT viewer_id, owner_id, trip_id FROM visible_trip";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TripServiceProperties properties;
+
+    public VisibleTripsReadModel(JdbcTemplate jdbcTemplate, TripServiceProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void enableIfSelected() {
+        if (properties.getLookupMode() == TripServiceProperties.LookupMode.READ_MODEL && !isEnabled()) {
+            enable();
+        }
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT enabled FROM read_model WHERE name = 'visible_trip'", Boolean.class));
+    }
+
+    /**
+     * Starts maintaining the projection and fills it from the base tables. Writes to friendships and
+     * trip assignments wait until the rebuild has committed.
+     */
+    @Transactional
+    public void enable() {
+        lockBaseTables();
+        jdbcTemplate.update("UPDATE read_model SET enabled = TRUE WHERE name = 'visible_trip'");
+        refill();
+    }
+
+    /**
+     * Stops maintaining the projection and empties it, so writes no longer fan out.
+     */
+    @Transactional
+    public void disable() {
+        lockBaseTables();
+        jdbcTemplate.update("UPDATE read_model SET enabled = FALSE WHERE name = 'visible_trip'");
+        jdbcTemplate.execute("TRUNCATE visible_trip");
+    }
+
+    /**
+     * Recomputes the projection from scratch, repairing whatever {@link #check()} found.
+     */
+    @Transactional
+    public void rebuild() {
+        lockBaseTables();
+        refill();
+    }
+
+    /**
+     * Compares the projection with the base tables within one snapshot. While the projection is
+     * disabled every expected row counts as missing.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public ConsistencyReport check() {
+        long missing = count("(" + EXPECTED_ROWS + " EXCEPT " + ACTUAL_ROWS + ")");
+        long unexpected = count("(" + ACTUAL_ROWS + " EXCEPT " + EXPECTED_ROWS + ")");
+        return new ConsistencyReport(missing, unexpected);
+    }
+
+    private void lockBaseTables() {
+        jdbcTemplate.execute("LOCK TABLE friendship, user_trip IN SHARE MODE");
+    }
+
+    private void refill() {
+        jdbcTemplate.execute("TRUNCATE visible_trip");
+        jdbcTemplate.update("INSERT INTO visible_trip (viewer_id, owner_id, trip_id) " + EXPECTED_ROWS);
+        jdbcTemplate.execute("ANALYZE visible_trip");
+    }
+
+    private long count(String rows) {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + rows + " difference", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Rows the projection lacks (viewers who cannot see a friend's trip) and rows it should not have
+     * (viewers who can see trips they must not).
+     */
+    public record ConsistencyReport(long missingRows, long unexpectedRows) {
+
+        public boolean isConsistent() {
+            return missingRows == 0 && unexpectedRows == 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+-- Sharded deployments keep a friendship on the shard of each of its two users, so a shard holds
+-- friendships whose other user lives elsewhere. The foreign keys give way to a trigger that still
+-- removes a user's friendships together with the user.
+ALTER TABLE friendship
+    DROP CONSTRAINT friendship_user_low_fkey,
+    DROP CONSTRAINT friendship_user_high_fkey;
+
+-- Moving users to another shard deletes them from the old one without touching friendships that
+-- users staying behind still need; the move sets trips.moving_users for its transaction.
+CREATE FUNCTION delete_friendships_of_users() RETURNS trigger AS $$
+BEGIN
+    IF current_setting('trips.moving_users', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    DELETE FROM friendship WHERE user_low IN (SELECT id FROM old_rows);
+    DELETE FROM friendship WHERE user_high IN (SELECT id FROM old_rows);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_table_deletes_friendships
+    AFTER DELETE ON user_table
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION delete_friendships_of_users();
+
+-- Which shard each bucket of users lives on. Only the application's own database is consulted;
+-- a sharded node fills it on first start.
+CREATE TABLE shard_bucket (
+    bucket INT PRIMARY KEY,
+    shard  INT NOT NULL
+);
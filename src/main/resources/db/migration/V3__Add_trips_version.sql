@@ -0,0 +1,33 @@
+-- Version counter per user that changes whenever the user's trip list changes.
+-- Used as a cheap ETag for the trips endpoint.
+ALTER TABLE user_table ADD COLUMN trips_version BIGINT NOT NULL DEFAULT 0;
+
+CREATE FUNCTION bump_trips_version_on_user_trip() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        UPDATE user_table SET trips_version = trips_version + 1 WHERE id = NEW.user_id;
+    END IF;
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        UPDATE user_table SET trips_version = trips_version + 1 WHERE id = OLD.user_id;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_trip_bumps_trips_version
+    AFTER INSERT OR UPDATE OR DELETE ON user_trip
+    FOR EACH ROW EXECUTE FUNCTION bump_trips_version_on_user_trip();
+
+-- Renaming a trip changes the trip list of everyone assigned to it
+CREATE FUNCTION bump_trips_version_on_trip() RETURNS trigger AS $$
+BEGIN
+    UPDATE user_table SET trips_version = trips_version + 1
+    WHERE id IN (SELECT user_id FROM user_trip WHERE trip_id = NEW.id);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trip_bumps_trips_version
+    AFTER UPDATE ON trip
+    FOR EACH ROW WHEN (OLD.name IS DISTINCT FROM NEW.name)
+    EXECUTE FUNCTION bump_trips_version_on_trip();
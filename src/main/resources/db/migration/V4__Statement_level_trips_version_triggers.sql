@@ -0,0 +1,46 @@
+-- Bump trips_version once per statement and user instead of once per row,
+-- so bulk loads into user_trip cost one UPDATE per affected user.
+DROP TRIGGER user_trip_bumps_trips_version ON user_trip;
+DROP FUNCTION bump_trips_version_on_user_trip();
+
+CREATE FUNCTION bump_trips_version_on_user_trip_insert() RETURNS trigger AS $$
+BEGIN
+    UPDATE user_table u SET trips_version = trips_version + 1
+    FROM (SELECT DISTINCT user_id FROM new_rows) changed
+    WHERE u.id = changed.user_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION bump_trips_version_on_user_trip_delete() RETURNS trigger AS $$
+BEGIN
+    UPDATE user_table u SET trips_version = trips_version + 1
+    FROM (SELECT DISTINCT user_id FROM old_rows) changed
+    WHERE u.id = changed.user_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION bump_trips_version_on_user_trip_update() RETURNS trigger AS $$
+BEGIN
+    UPDATE user_table u SET trips_version = trips_version + 1
+    FROM (SELECT user_id FROM new_rows UNION SELECT user_id FROM old_rows) changed
+    WHERE u.id = changed.user_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_trip_insert_bumps_trips_version
+    AFTER INSERT ON user_trip
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_trips_version_on_user_trip_insert();
+
+CREATE TRIGGER user_trip_delete_bumps_trips_version
+    AFTER DELETE ON user_trip
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_trips_version_on_user_trip_delete();
+
+CREATE TRIGGER user_trip_update_bumps_trips_version
+    AFTER UPDATE ON user_trip
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_trips_version_on_user_trip_update();
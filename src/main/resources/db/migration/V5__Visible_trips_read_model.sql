@@ -0,0 +1,170 @@
+-- Denormalized projection of who may see which trip: one row per (viewer, friend, friend's trip).
+-- The primary key makes "viewer's view of one owner" a single index range scan.
+-- Writes fan out: a trip assigned to a user with N friends adds N rows, so the projection is
+-- only maintained while enabled in read_model (see VisibleTripsReadModel, which rebuilds it on enable).
+CREATE TABLE visible_trip (
+    viewer_id BIGINT NOT NULL,
+    owner_id BIGINT NOT NULL,
+    trip_id BIGINT NOT NULL,
+    PRIMARY KEY (viewer_id, owner_id, trip_id)
+);
+
+-- Maintenance path when an owner's trip assignment changes
+CREATE INDEX idx_visible_trip_owner_trip ON visible_trip(owner_id, trip_id);
+
+CREATE TABLE read_model (
+    name VARCHAR(64) PRIMARY KEY,
+    enabled BOOLEAN NOT NULL
+);
+
+INSERT INTO read_model (name, enabled) VALUES ('visible_trip', FALSE);
+
+CREATE FUNCTION visible_trip_enabled() RETURNS boolean AS $$
+    SELECT enabled FROM read_model WHERE name = 'visible_trip';
+$$ LANGUAGE sql STABLE;
+
+-- Every maintenance trigger first locks the affected owners' user_table rows. A friendship and a
+-- trip assignment touching the same owner are then applied one after the other, so neither
+-- transaction can miss the other's row (no lost inserts, and no stale rows left after a delete).
+CREATE FUNCTION lock_trip_owners(owner_ids BIGINT[]) RETURNS void AS $$
+BEGIN
+    PERFORM 1 FROM user_table WHERE id = ANY(owner_ids) ORDER BY id FOR NO KEY UPDATE;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_friendship_insert() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT DISTINCT friend_id FROM new_rows));
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT n.user_id, n.friend_id, ut.trip_id
+    FROM new_rows n JOIN user_trip ut ON ut.user_id = n.friend_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_friendship_delete() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT DISTINCT friend_id FROM old_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE v.viewer_id = o.user_id AND v.owner_id = o.friend_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_friendship_update() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT friend_id FROM old_rows UNION SELECT friend_id FROM new_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE v.viewer_id = o.user_id AND v.owner_id = o.friend_id;
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT n.user_id, n.friend_id, ut.trip_id
+    FROM new_rows n JOIN user_trip ut ON ut.user_id = n.friend_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_user_trip_insert() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT DISTINCT user_id FROM new_rows));
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT uf.user_id, n.user_id, n.trip_id
+    FROM new_rows n JOIN user_friends uf ON uf.friend_id = n.user_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_user_trip_delete() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT DISTINCT user_id FROM old_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE v.owner_id = o.user_id AND v.trip_id = o.trip_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION visible_trip_on_user_trip_update() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT user_id FROM old_rows UNION SELECT user_id FROM new_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE v.owner_id = o.user_id AND v.trip_id = o.trip_id;
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT uf.user_id, n.user_id, n.trip_id
+    FROM new_rows n JOIN user_friends uf ON uf.friend_id = n.user_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Emptying either base table empties the projection
+CREATE FUNCTION visible_trip_on_truncate() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    TRUNCATE visible_trip;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_friends_insert_maintains_visible_trip
+    AFTER INSERT ON user_friends
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_insert();
+
+CREATE TRIGGER user_friends_delete_maintains_visible_trip
+    AFTER DELETE ON user_friends
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_delete();
+
+CREATE TRIGGER user_friends_update_maintains_visible_trip
+    AFTER UPDATE ON user_friends
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_update();
+
+CREATE TRIGGER user_friends_truncate_maintains_visible_trip
+    AFTER TRUNCATE ON user_friends
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_truncate();
+
+CREATE TRIGGER user_trip_insert_maintains_visible_trip
+    AFTER INSERT ON user_trip
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_user_trip_insert();
+
+CREATE TRIGGER user_trip_delete_maintains_visible_trip
+    AFTER DELETE ON user_trip
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_user_trip_delete();
+
+CREATE TRIGGER user_trip_update_maintains_visible_trip
+    AFTER UPDATE ON user_trip
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_user_trip_update();
+
+CREATE TRIGGER user_trip_truncate_maintains_visible_trip
+    AFTER TRUNCATE ON user_trip
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_truncate();
@@ -0,0 +1,35 @@
+-- The friends' trip feed reads each friend's newest trips from one index, which needs the trip's
+-- creation time next to the assignment. It is copied from trip and kept in step by triggers.
+UPDATE trip SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL;
+ALTER TABLE trip ALTER COLUMN created_at SET NOT NULL;
+
+ALTER TABLE user_trip ADD COLUMN trip_created_at TIMESTAMP;
+UPDATE user_trip ut SET trip_created_at = t.created_at FROM trip t WHERE t.id = ut.trip_id;
+ALTER TABLE user_trip ALTER COLUMN trip_created_at SET NOT NULL;
+
+CREATE FUNCTION copy_trip_created_at() RETURNS trigger AS $$
+BEGIN
+    SELECT created_at INTO NEW.trip_created_at FROM trip WHERE id = NEW.trip_id;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_trip_copies_trip_created_at
+    BEFORE INSERT OR UPDATE OF trip_id ON user_trip
+    FOR EACH ROW EXECUTE FUNCTION copy_trip_created_at();
+
+CREATE FUNCTION propagate_trip_created_at() RETURNS trigger AS $$
+BEGIN
+    UPDATE user_trip SET trip_created_at = NEW.created_at WHERE trip_id = NEW.id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trip_propagates_created_at
+    AFTER UPDATE OF created_at ON trip
+    FOR EACH ROW WHEN (OLD.created_at IS DISTINCT FROM NEW.created_at)
+    EXECUTE FUNCTION propagate_trip_created_at();
+
+-- Scanned backwards per friend: newest first, ties broken by trip id
+CREATE INDEX idx_user_trip_user_created ON user_trip(user_id, trip_created_at, trip_id);
+ANALYZE user_trip;
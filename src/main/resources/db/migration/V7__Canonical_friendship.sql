@@ -0,0 +1,120 @@
+-- Store each friendship once, as (lower id, higher id), instead of once per direction.
+-- Lookups in either direction use the primary key or idx_friendship_user_high.
+CREATE TABLE friendship (
+    user_low BIGINT NOT NULL,
+    user_high BIGINT NOT NULL,
+    PRIMARY KEY (user_low, user_high),
+    FOREIGN KEY (user_low) REFERENCES user_table(id) ON DELETE CASCADE,
+    FOREIGN KEY (user_high) REFERENCES user_table(id) ON DELETE CASCADE,
+    CHECK (user_low < user_high)
+);
+
+INSERT INTO friendship (user_low, user_high)
+SELECT DISTINCT LEAST(user_id, friend_id), GREATEST(user_id, friend_id) FROM user_friends;
+
+CREATE INDEX idx_friendship_user_high ON friendship(user_high, user_low);
+
+DROP TABLE user_friends;
+
+-- The PRIMARY KEY (user_id, trip_id) already serves lookups by user_id
+DROP INDEX idx_user_trip_user_id;
+
+-- Directed read view with the old table's shape: every friendship appears once per direction.
+-- A filter on user_id turns into one index scan per branch.
+CREATE VIEW user_friends (user_id, friend_id) AS
+SELECT user_low, user_high FROM friendship
+UNION ALL
+SELECT user_high, user_low FROM friendship;
+
+-- Writes through the view land on the canonical row, whichever direction they name
+CREATE FUNCTION user_friends_write() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO friendship (user_low, user_high)
+        VALUES (LEAST(NEW.user_id, NEW.friend_id), GREATEST(NEW.user_id, NEW.friend_id))
+        ON CONFLICT DO NOTHING;
+        RETURN NEW;
+    END IF;
+    DELETE FROM friendship
+    WHERE user_low = LEAST(OLD.user_id, OLD.friend_id) AND user_high = GREATEST(OLD.user_id, OLD.friend_id);
+    RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_friends_writes_friendship
+    INSTEAD OF INSERT OR DELETE ON user_friends
+    FOR EACH ROW EXECUTE FUNCTION user_friends_write();
+
+-- The visible_trip triggers moved with the table; each canonical row stands for two directed edges
+CREATE OR REPLACE FUNCTION visible_trip_on_friendship_insert() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT user_low FROM new_rows UNION SELECT user_high FROM new_rows));
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT e.viewer_id, e.owner_id, ut.trip_id
+    FROM (SELECT user_low AS viewer_id, user_high AS owner_id FROM new_rows
+          UNION ALL
+          SELECT user_high, user_low FROM new_rows) e
+    JOIN user_trip ut ON ut.user_id = e.owner_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION visible_trip_on_friendship_delete() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(SELECT user_low FROM old_rows UNION SELECT user_high FROM old_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE (v.viewer_id = o.user_low AND v.owner_id = o.user_high)
+       OR (v.viewer_id = o.user_high AND v.owner_id = o.user_low);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION visible_trip_on_friendship_update() RETURNS trigger AS $$
+BEGIN
+    IF NOT visible_trip_enabled() THEN
+        RETURN NULL;
+    END IF;
+    PERFORM lock_trip_owners(ARRAY(
+        SELECT user_low FROM old_rows UNION SELECT user_high FROM old_rows
+        UNION SELECT user_low FROM new_rows UNION SELECT user_high FROM new_rows));
+    DELETE FROM visible_trip v
+    USING old_rows o
+    WHERE (v.viewer_id = o.user_low AND v.owner_id = o.user_high)
+       OR (v.viewer_id = o.user_high AND v.owner_id = o.user_low);
+    INSERT INTO visible_trip (viewer_id, owner_id, trip_id)
+    SELECT e.viewer_id, e.owner_id, ut.trip_id
+    FROM (SELECT user_low AS viewer_id, user_high AS owner_id FROM new_rows
+          UNION ALL
+          SELECT user_high, user_low FROM new_rows) e
+    JOIN user_trip ut ON ut.user_id = e.owner_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER friendship_insert_maintains_visible_trip
+    AFTER INSERT ON friendship
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_insert();
+
+CREATE TRIGGER friendship_delete_maintains_visible_trip
+    AFTER DELETE ON friendship
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_delete();
+
+CREATE TRIGGER friendship_update_maintains_visible_trip
+    AFTER UPDATE ON friendship
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_friendship_update();
+
+CREATE TRIGGER friendship_truncate_maintains_visible_trip
+    AFTER TRUNCATE ON friendship
+    FOR EACH STATEMENT EXECUTE FUNCTION visible_trip_on_truncate();
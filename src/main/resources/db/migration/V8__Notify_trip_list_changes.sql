@@ -0,0 +1,18 @@
+-- Tell every application node whose trip list changed, so node-local trip list caches can drop it.
+-- The triggers on user_trip and trip already funnel every such change into user_table.trips_version,
+-- so the notification is sent from there, carrying the new version as '<user id>:<trips_version>'.
+-- NOTIFY is delivered when the transaction commits and duplicates within a transaction are merged.
+CREATE FUNCTION notify_trip_list_changed() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('trip_list_changed', n.id || ':' || n.trips_version)
+    FROM new_rows n
+    JOIN old_rows o ON o.id = n.id
+    WHERE n.trips_version <> o.trips_version;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER user_table_notifies_trip_list_changed
+    AFTER UPDATE ON user_table
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_trip_list_changed();
@@ -0,0 +1,8 @@
+-- Single row the application stamps on the primary and reads back from the replica, so replica
+-- staleness is measured in primary clock time whatever replicates the row.
+CREATE TABLE replication_heartbeat (
+    id      BOOLEAN PRIMARY KEY DEFAULT TRUE CHECK (id),
+    beat_at TIMESTAMPTZ NOT NULL
+);
+
+INSERT INTO replication_heartbeat (beat_at) VALUES (clock_timestamp());
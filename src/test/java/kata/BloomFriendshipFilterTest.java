@@ -0,0 +1,128 @@
+package kata;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+class BloomFriendshipFilterTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BloomFriendshipFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            UserRepositoryCustom.FriendshipConsumer consumer = invocation.getArgument(0);
+            consumer.accept(1L, 2L);
+            consumer.accept(2L, 1L);
+            return null;
+        }).when(userRepository).forEachFriendship(any());
+
+        TripServiceProperties properties = new TripServiceProperties();
+        properties.getFriendshipFilter().setExpectedFriendships(1_000);
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new BloomFriendshipFilter(userRepository, transactionManager, properties, new TripMetrics(meterRegistry));
+    }
+
+    @Test
+    void mightBeFriends_shouldAcceptLoadedFriendshipsInBothDirectionsAndCountRejections() {
+        assertThat(filter.mightBeFriends(1L, 2L)).isTrue();
+        assertThat(filter.mightBeFriends(2L, 1L)).isTrue();
+        assertThat(filter.mightBeFriends(1L, 3L)).isFalse();
+
+        assertThat(meterRegistry.get("trips.friendship.filter.rejections").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("trips.friendship.filter.size").gauge().value()).isPositive();
+    }
+
+    @Test
+    void onFriendshipChanged_shouldAcceptAddedFriendshipsAndKeepRemovedOnesUntilRebuilt() {
+        filter.onFriendshipChanged(new FriendshipChangedEvent(4L, 3L, true));
+        filter.onFriendshipChanged(new FriendshipChangedEvent(2L, 1L, false));
+
+        assertThat(filter.mightBeFriends(3L, 4L)).isTrue();
+        assertThat(filter.mightBeFriends(1L, 2L)).isTrue();
+    }
+
+    @Test
+    void onFriendshipChanged_shouldNotLoseFriendshipsCommittedWhileTheFilterIsRebuilt() throws InterruptedException {
+        // Given - friendships of user 1 as committed so far; every scan sees those committed before it started
+        Set<Long> committedFriendIds = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            UserRepositoryCustom.FriendshipConsumer consumer = invocation.getArgument(0);
+            for (long friendId : Set.copyOf(committedFriendIds)) {
+                consumer.accept(1L, friendId);
+            }
+            return null;
+        }).when(userRepository).forEachFriendship(any());
+        TripServiceProperties properties = new TripServiceProperties();
+        properties.getFriendshipFilter().setExpectedFriendships(100_000);
+        BloomFriendshipFilter rebuiltFilter = new BloomFriendshipFilter(
+                userRepository, transactionManager, properties, new TripMetrics(new SimpleMeterRegistry()));
+        AtomicBoolean done = new AtomicBoolean();
+        Thread rebuilder = Thread.ofVirtual().start(() -> {
+            while (!done.get()) {
+                rebuiltFilter.rebuild();
+            }
+        });
+
+        // When / Then - each friendship is committed, announced and checked while rebuilds keep swapping filters
+        try {
+            for (long friendId = 1_000; friendId < 21_000; friendId++) {
+                committedFriendIds.add(friendId);
+                rebuiltFilter.onFriendshipChanged(new FriendshipChangedEvent(1L, friendId, true));
+                assertThat(rebuiltFilter.mightBeFriends(1L, friendId)).as("friend %d", friendId).isTrue();
+            }
+        } finally {
+            done.set(true);
+            rebuilder.join();
+        }
+    }
+
+    @Test
+    void bits_shouldNeverMissAnAddedEntryAndStayNearTheConfiguredFalsePositiveRate() {
+        BloomFriendshipFilter.Bits bits = BloomFriendshipFilter.Bits.sizedFor(100_000, 0.01);
+        Random random = new Random(42);
+        long[][] added = new long[100_000][];
+        for (int i = 0; i < added.length; i++) {
+            long low = random.nextInt(1_000_000);
+            added[i] = new long[]{low, low + 1 + random.nextInt(1_000_000)};
+            bits.add(added[i][0], added[i][1]);
+        }
+
+        for (long[] pair : added) {
+            assertThat(bits.mightContain(pair[0], pair[1])).isTrue();
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            long low = 2_000_000L + random.nextInt(1_000_000);
+            if (bits.mightContain(low, low + 1 + random.nextInt(1_000_000))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / probes).isCloseTo(0.01, within(0.005));
+        assertThat(bits.estimatedFalsePositiveRate()).isCloseTo(0.01, within(0.002));
+    }
+}
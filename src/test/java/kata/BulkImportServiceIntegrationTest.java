@@ -0,0 +1,158 @@
+package kata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = "trips.bulk-import.batch-size=2")
+@Testcontainers
+@RecordApplicationEvents
+class BulkImportServiceIntegrationTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ApplicationEvents applicationEvents;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+        jdbcTemplate.execute("INSERT INTO user_table (id, username) VALUES (1, 'alice'), (2, 'bob'), (3, 'charlie')");
+        jdbcTemplate.execute("INSERT INTO trip (id, name) VALUES (10, 'Paris'), (11, 'London')");
+    }
+
+    @Test
+    void imports_csv_friendships_once_per_pair_across_batches() {
+        // Given - a header, a duplicate, a reversed duplicate, a self-friendship and an unknown user
+        String csv = """
+                user_id,friend_id
+                1,2
+                1,2
+                2,1
+                2,3
+                3,3
+                1,99
+                """;
+
+        // When
+        BulkImportService.ImportResult result = bulkImportService.importFriendships(new StringReader(csv), BulkImportService.Format.CSV);
+
+        // Then
+        assertThat(result.rowsRead()).isEqualTo(6);
+        assertThat(result.rowsInserted()).isEqualTo(2);
+        assertThat(friendships()).containsExactly("1-2", "2-1", "2-3", "3-2");
+    }
+
+    @Test
+    void imports_ndjson_trip_assignments_skipping_unknown_trips() {
+        // Given
+        String ndjson = """
+                {"user_id":1,"trip_id":10}
+                {"user_id":2,"trip_id":11}
+
+                {"user_id":2,"trip_id":404}
+                """;
+
+        // When
+        BulkImportService.ImportResult result = bulkImportService.importTripAssignments(new StringReader(ndjson), BulkImportService.Format.NDJSON);
+
+        // Then
+        assertThat(result.rowsRead()).isEqualTo(3);
+        assertThat(result.rowsInserted()).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForList("SELECT user_id || '-' || trip_id FROM user_trip ORDER BY user_id", String.class))
+                .containsExactly("1-10", "2-11");
+    }
+
+    @Test
+    void rejects_malformed_line_with_its_line_number_keeping_committed_batches() {
+        // Given - the first batch of two rows is complete before the bad line is read
+        String csv = """
+                1,2
+                2,3
+                1,3
+                not-a-row
+                """;
+
+        // When / Then
+        assertThatThrownBy(() -> bulkImportService.importFriendships(new StringReader(csv), BulkImportService.Format.CSV))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Line 4");
+        assertThat(friendships()).containsExactly("1-2", "2-1", "2-3", "3-2");
+        assertThat(applicationEvents.stream(FriendshipsImportedEvent.class))
+                .containsExactly(new FriendshipsImportedEvent(2));
+    }
+
+    @Test
+    @Tag("load")
+    void reports_friendship_import_throughput() {
+        // Given
+        int users = 100_000;
+        int rows = 2_000_000;
+        jdbcTemplate.execute("INSERT INTO user_table (id, username) SELECT g, 'user' || g FROM generate_series(4, " + users + ") g");
+        StringBuilder csv = new StringBuilder(rows * 14);
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            csv.append(1 + random.nextInt(users)).append(',').append(1 + random.nextInt(users)).append('\n');
+        }
+        TripServiceProperties properties = new TripServiceProperties();
+        BulkImportService importer = new BulkImportService(dataSource, objectMapper, eventPublisher, properties);
+
+        // When
+        BulkImportService.ImportResult result = importer.importFriendships(new StringReader(csv.toString()), BulkImportService.Format.CSV);
+
+        // Then
+        System.out.printf("Imported %,d friendship rows (%,d new friendships) in %,d ms: %,.0f rows/s%n",
+                result.rowsRead(), result.rowsInserted(), result.elapsedMillis(), result.rowsPerSecond());
+        assertThat(result.rowsRead()).isEqualTo(rows);
+    }
+
+    private List<String> friendships() {
+        return jdbcTemplate.queryForList(
+                "SELECT user_id || '-' || friend_id FROM user_friends ORDER BY user_id, friend_id", String.class);
+    }
+}
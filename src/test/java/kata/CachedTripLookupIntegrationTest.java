@@ -0,0 +1,145 @@
+package kata;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = {"trips.friendship-source=cache", "trips.trip-list-cache.enabled=true"})
+@Testcontainers
+class CachedTripLookupIntegrationTest {
+
+    private static final long VIEWER_ID = 1L;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private FriendCache friendCache;
+
+    @Autowired
+    private TripListCache tripListCache;
+
+    @Autowired
+    private TripServiceProperties properties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @MockitoBean
+    private AuthenticationFacade authenticationFacade;
+
+    private final List<User> owners = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws SQLException, InterruptedException {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        // Three friends of the viewer, each with one trip, for every pooled connection
+        jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, 'viewer')", VIEWER_ID);
+        int friends = 3 * dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+        owners.clear();
+        for (long ownerId = VIEWER_ID + 1; ownerId <= VIEWER_ID + friends; ownerId++) {
+            jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, ?)", ownerId, "owner" + ownerId);
+            jdbcTemplate.update("INSERT INTO friendship (user_low, user_high) VALUES (?, ?)", VIEWER_ID, ownerId);
+            Long tripId = jdbcTemplate.queryForObject("INSERT INTO trip (name) VALUES (?) RETURNING id", Long.class, "Trip of " + ownerId);
+            jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", ownerId, tripId);
+            User owner = new User();
+            owner.setId(ownerId);
+            owners.add(owner);
+        }
+
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(VIEWER_ID, "viewer"));
+        await(tripListCache::isListening);
+        friendCache.invalidateAll();
+        tripListCache.invalidateAll();
+    }
+
+    @AfterEach
+    void resetLookupMode() {
+        properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = TripServiceProperties.LookupMode.class, names = {"FRIEND_LIST", "PARALLEL"})
+    void should_serve_more_concurrent_cold_lookups_than_the_pool_has_connections(TripServiceProperties.LookupMode lookupMode)
+            throws Exception {
+        // Given
+        properties.setLookupMode(lookupMode);
+
+        // When: every friend's trips are requested at once, with both caches empty
+        List<List<Trip>> results = lookUpAllAtOnce();
+
+        // Then: every lookup finishes well before a connection request would time out
+        for (int i = 0; i < owners.size(); i++) {
+            assertThat(results.get(i)).extracting(Trip::name).containsExactly("Trip of " + owners.get(i).getId());
+        }
+    }
+
+    private List<List<Trip>> lookUpAllAtOnce() throws Exception {
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<Trip>>> lookups = new ArrayList<>();
+            for (User owner : owners) {
+                lookups.add(callers.submit(() -> {
+                    start.await();
+                    return tripService.getTripsByUser(owner);
+                }));
+            }
+            start.countDown();
+
+            List<List<Trip>> results = new ArrayList<>();
+            for (Future<List<Trip>> lookup : lookups) {
+                results.add(lookup.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+    }
+
+    private static void await(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.get()) {
+            assertThat(System.nanoTime()).as("condition not met within 5 seconds").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package kata;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressedFriendshipGraphTest {
+
+    @Test
+    void areFriends_shouldFollowDirectedEdgesOnly() {
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(1L, 2L)
+                .add(2L, 1L)
+                .add(1L, 30L)
+                .add(4L, 2L)
+                .build();
+
+        assertThat(graph.areFriends(1L, 2L)).isTrue();
+        assertThat(graph.areFriends(2L, 1L)).isTrue();
+        assertThat(graph.areFriends(1L, 30L)).isTrue();
+        assertThat(graph.areFriends(30L, 1L)).isFalse();
+        assertThat(graph.areFriends(2L, 4L)).isFalse();
+        assertThat(graph.areFriends(1L, 99L)).isFalse();
+        assertThat(graph.areFriends(99L, 1L)).isFalse();
+    }
+
+    @Test
+    void build_shouldDropDuplicateEdges() {
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(3L, 1L)
+                .add(1L, 2L)
+                .add(3L, 1L)
+                .add(1L, 2L)
+                .add(3L, 2L)
+                .build();
+
+        assertThat(graph.edgeCount()).isEqualTo(3);
+        assertThat(graph.areFriends(3L, 1L)).isTrue();
+        assertThat(graph.areFriends(3L, 2L)).isTrue();
+    }
+
+    @Test
+    void usersWithin_shouldReturnEachUserOnceNearestFirstUpToMaxDepth() {
+        // 1 - 2 - 4 - 5, and 1 - 3 - 4 closes a cycle
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(1L, 2L).add(2L, 1L)
+                .add(1L, 3L).add(3L, 1L)
+                .add(2L, 4L).add(4L, 2L)
+                .add(3L, 4L).add(4L, 3L)
+                .add(4L, 5L).add(5L, 4L)
+                .build();
+
+        assertThat(graph.usersWithin(1L, 1, 100)).containsExactly(2L, 3L);
+        assertThat(graph.usersWithin(1L, 2, 100)).containsExactly(2L, 3L, 4L);
+        assertThat(graph.usersWithin(1L, 10, 100)).containsExactly(2L, 3L, 4L, 5L);
+        assertThat(graph.usersWithin(1L, 0, 100)).isEmpty();
+    }
+
+    @Test
+    void usersWithin_shouldStopAtMaxUsersAndIgnoreUnknownUsers() {
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(1L, 2L).add(1L, 3L).add(1L, 4L)
+                .add(2L, 5L)
+                .build();
+
+        assertThat(graph.usersWithin(1L, 2, 2)).containsExactly(2L, 3L);
+        assertThat(graph.usersWithin(99L, 2, 10)).isEmpty();
+    }
+
+    @Test
+    void usersWithin_withPendingEdges_shouldMatchTheGraphTheyWouldBeMergedInto() {
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(1L, 2L).add(2L, 1L)
+                .add(2L, 3L).add(3L, 2L)
+                .add(3L, 4L).add(4L, 3L)
+                .build();
+        long[][] additions = {{1L, 7L}, {7L, 1L}, {7L, 8L}, {8L, 7L}};
+        long[][] removals = {{2L, 3L}, {3L, 2L}};
+
+        assertThat(graph.usersWithin(1L, 3, 100, additions, removals)).containsExactly(2L, 7L, 8L);
+        assertThat(graph.usersWithin(1L, 3, 100, additions, removals))
+                .containsExactlyInAnyOrder(graph.with(additions, removals).usersWithin(1L, 3, 100));
+        assertThat(graph.usersWithin(7L, 1, 100, additions, removals)).containsExactly(1L, 8L);
+        assertThat(graph.usersWithin(1L, 3, 2, additions, removals)).containsExactly(2L, 7L);
+    }
+
+    @Test
+    void with_shouldApplyAdditionsAndRemovals() {
+        CompressedFriendshipGraph graph = CompressedFriendshipGraph.builder()
+                .add(1L, 2L)
+                .add(2L, 1L)
+                .build();
+
+        CompressedFriendshipGraph updated = graph.with(
+                new long[][]{{1L, 3L}, {3L, 1L}},
+                new long[][]{{1L, 2L}});
+
+        assertThat(updated.areFriends(1L, 2L)).isFalse();
+        assertThat(updated.areFriends(2L, 1L)).isTrue();
+        assertThat(updated.areFriends(1L, 3L)).isTrue();
+        assertThat(updated.areFriends(3L, 1L)).isTrue();
+        assertThat(graph.areFriends(1L, 2L)).isTrue();
+    }
+
+    @Test
+    void estimatedSizeInBytes_shouldStayWithinBudgetPerEdge() {
+        int users = 200_000;
+        int degree = 10;
+        Random random = new Random(42);
+        CompressedFriendshipGraph.Builder builder = CompressedFriendshipGraph.builder();
+        for (long user = 1; user <= users; user++) {
+            for (int i = 0; i < degree / 2; i++) {
+                long friend = 1 + random.nextInt(users);
+                if (friend != user) {
+                    builder.add(user, friend);
+                    builder.add(friend, user);
+                }
+            }
+        }
+
+        CompressedFriendshipGraph graph = builder.build();
+
+        assertThat(graph.estimatedSizeInBytes())
+                .isLessThanOrEqualTo((long) CompressedFriendshipGraph.BYTES_PER_EDGE_BUDGET * graph.edgeCount());
+    }
+}
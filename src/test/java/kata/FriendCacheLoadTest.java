@@ -0,0 +1,18 @@
+package kata;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+/**
+ * {@link TripServiceLoadTest} with friendships checked through {@link FriendCache}. The short time to
+ * live keeps the viewer's friend list reloading while requests wait for it, so both runs exercise
+ * the cache's loads and not only its hits.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.hikari.maximum-pool-size=50",
+        "trips.friendship-source=cache",
+        "trips.friend-cache.time-to-live=100ms"
+})
+@Import(TripServiceLoadTest.FixedViewerConfiguration.class)
+class FriendCacheLoadTest extends TripServiceLoadTest {
+}
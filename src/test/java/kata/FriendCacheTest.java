@@ -0,0 +1,54 @@
+package kata;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FriendCacheTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    private FriendCache friendCache;
+
+    @BeforeEach
+    void setUp() {
+        friendCache = new FriendCache(userRepository, new TripServiceProperties(), new TripMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void areFriends_shouldLoadFriendIdsOnceAndServeRepeatedChecksFromMemory() {
+        when(userRepository.findFriendIdsByUserId(1L)).thenReturn(new long[]{2L, 3L});
+
+        assertThat(friendCache.areFriends(1L, 2L)).isTrue();
+        assertThat(friendCache.areFriends(1L, 3L)).isTrue();
+        assertThat(friendCache.areFriends(1L, 4L)).isFalse();
+
+        verify(userRepository, times(1)).findFriendIdsByUserId(1L);
+        assertThat(friendCache.stats().missCount()).isEqualTo(1);
+        assertThat(friendCache.stats().hitCount()).isEqualTo(2);
+    }
+
+    @Test
+    void onFriendshipChanged_shouldInvalidateBothUsers() {
+        when(userRepository.findFriendIdsByUserId(1L)).thenReturn(new long[]{}, new long[]{2L});
+        when(userRepository.findFriendIdsByUserId(2L)).thenReturn(new long[]{}, new long[]{1L});
+
+        assertThat(friendCache.areFriends(1L, 2L)).isFalse();
+        assertThat(friendCache.areFriends(2L, 1L)).isFalse();
+
+        friendCache.onFriendshipChanged(new FriendshipChangedEvent(1L, 2L, true));
+
+        assertThat(friendCache.areFriends(1L, 2L)).isTrue();
+        assertThat(friendCache.areFriends(2L, 1L)).isTrue();
+    }
+}
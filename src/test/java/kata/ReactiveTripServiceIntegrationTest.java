@@ -0,0 +1,119 @@
+package kata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = {"trips.reactive.enabled=true", "trips.reactive.fetch-size=2"})
+@Testcontainers
+class ReactiveTripServiceIntegrationTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Autowired
+    private ReactiveTripService reactiveTripService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockitoBean
+    private AuthenticationFacade authenticationFacade;
+
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (1, 'alice'), (2, 'bob'), (3, 'charlie')");
+        jdbcTemplate.update("INSERT INTO friendship (user_low, user_high) VALUES (1, 2)");
+        jdbcTemplate.update("INSERT INTO trip (id, name) VALUES (10, 'Paris'), (11, 'London'), (12, 'Rome'), (13, 'Oslo'), (14, 'Riga')");
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) SELECT 2, id FROM trip");
+
+        bob = new User();
+        bob.setId(2L);
+    }
+
+    @Test
+    void should_stream_a_friends_trips() throws UserNotLoggedInException {
+        // Given
+        loggedInAs(1L, "alice");
+
+        // When / Then
+        StepVerifier.create(reactiveTripService.getTripsByUser(bob))
+                .recordWith(ArrayList::new)
+                .expectNextCount(5)
+                .consumeRecordedWith(trips -> assertThat(trips).extracting(Trip::name)
+                        .containsExactlyInAnyOrder("Paris", "London", "Rome", "Oslo", "Riga"))
+                .verifyComplete();
+    }
+
+    @Test
+    void should_emit_no_trips_of_a_stranger() throws UserNotLoggedInException {
+        // Given
+        loggedInAs(3L, "charlie");
+
+        // When / Then
+        StepVerifier.create(reactiveTripService.getTripsByUser(bob))
+                .verifyComplete();
+    }
+
+    @Test
+    void should_only_emit_as_many_trips_as_requested() throws UserNotLoggedInException {
+        // Given
+        loggedInAs(1L, "alice");
+
+        // When / Then: The subscriber asks for one trip at a time and may stop early
+        StepVerifier.create(reactiveTripService.getTripsByUser(bob), 1)
+                .expectNextCount(1)
+                .thenRequest(2)
+                .expectNextCount(2)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void should_refuse_when_nobody_is_logged_in() {
+        // Given
+        when(authenticationFacade.getCurrentUser()).thenThrow(new IllegalStateException("No authenticated user"));
+
+        // When / Then
+        assertThatThrownBy(() -> reactiveTripService.getTripsByUser(bob))
+                .isInstanceOf(UserNotLoggedInException.class);
+    }
+
+    @Test
+    void should_derive_the_r2dbc_url_from_the_jdbc_url() {
+        assertThat(ReactiveTripConfiguration.r2dbcUrlOf("jdbc:postgresql://localhost:5432/trips?loggerLevel=OFF"))
+                .isEqualTo("r2dbc:postgresql://localhost:5432/trips");
+    }
+
+    private void loggedInAs(Long id, String username) {
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(id, username));
+    }
+}
@@ -0,0 +1,213 @@
+package kata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the blocking JDBC lookup, on a Tomcat-sized platform thread pool and on virtual threads,
+ * with the R2DBC lookup subscribed from a single thread, under the same load and with equally
+ * large connection pools. Run with {@code ./gradlew loadTest}. Peak thread counts cover platform
+ * threads only, which include the carriers virtual threads run on.
+ */
+@Tag("load")
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = {"spring.datasource.hikari.maximum-pool-size=50",
+        "trips.reactive.enabled=true", "trips.reactive.max-connections=50"})
+@Testcontainers
+class ReactiveTripServiceLoadTest {
+
+    private static final long VIEWER_ID = 1_000L;
+    private static final int FRIENDS = 100;
+    private static final int TRIPS_PER_FRIEND = 5;
+    private static final int TOMCAT_DEFAULT_MAX_THREADS = 200;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class FixedViewerConfiguration {
+
+        @Bean
+        @Primary
+        AuthenticationFacade fixedViewer() {
+            return () -> new CurrentUser(VIEWER_ID, "viewer");
+        }
+    }
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private ReactiveTripService reactiveTripService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, 'viewer')", VIEWER_ID);
+        for (long friend = VIEWER_ID + 1; friend <= VIEWER_ID + FRIENDS; friend++) {
+            jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, ?)", friend, "friend" + friend);
+            jdbcTemplate.update("INSERT INTO friendship (user_low, user_high) VALUES (?, ?)", VIEWER_ID, friend);
+            for (int trip = 0; trip < TRIPS_PER_FRIEND; trip++) {
+                Long tripId = jdbcTemplate.queryForObject(
+                        "INSERT INTO trip (name) VALUES (?) RETURNING id", Long.class, "trip " + friend + "/" + trip);
+                jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", friend, tripId);
+            }
+        }
+    }
+
+    @ParameterizedTest(name = "{0} concurrent requests")
+    @ValueSource(ints = {1_000, 10_000})
+    void reactive_lookups_should_serve_the_same_load_on_far_fewer_threads(int concurrentRequests)
+            throws InterruptedException {
+        runBlocking(Executors.newFixedThreadPool(TOMCAT_DEFAULT_MAX_THREADS), 500);
+        runBlocking(Executors.newVirtualThreadPerTaskExecutor(), 500);
+        runReactive(500);
+
+        LoadResult platform = runBlocking(Executors.newFixedThreadPool(TOMCAT_DEFAULT_MAX_THREADS), concurrentRequests);
+        LoadResult virtual = runBlocking(Executors.newVirtualThreadPerTaskExecutor(), concurrentRequests);
+        LoadResult reactive = runReactive(concurrentRequests);
+
+        System.out.printf("%,d concurrent requests%n", concurrentRequests);
+        System.out.println("  JDBC, platform (" + TOMCAT_DEFAULT_MAX_THREADS + " threads): " + platform);
+        System.out.println("  JDBC, virtual (thread per request): " + virtual);
+        System.out.println("  R2DBC, reactive: " + reactive);
+
+        assertThat(platform.failures()).isZero();
+        assertThat(virtual.failures()).isZero();
+        assertThat(reactive.failures()).isZero();
+    }
+
+    private LoadResult runBlocking(ExecutorService executor, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(requests);
+        threads.resetPeakThreadCount();
+
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            User owner = ownerFor(i);
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    long began = System.nanoTime();
+                    if (tripService.getTripsByUser(owner).size() != TRIPS_PER_FRIEND) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[request] = System.nanoTime() - began;
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        assertThat(done.await(5, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - began;
+        executor.shutdown();
+
+        return new LoadResult(requests, elapsed, latencies, failures.get(), threads.getPeakThreadCount());
+    }
+
+    private LoadResult runReactive(int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(requests);
+        threads.resetPeakThreadCount();
+
+        long began = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            long requestBegan = System.nanoTime();
+            try {
+                reactiveTripService.getTripsByUser(ownerFor(i))
+                        .count()
+                        .subscribe(
+                                trips -> {
+                                    if (trips != TRIPS_PER_FRIEND) {
+                                        failures.incrementAndGet();
+                                    }
+                                    latencies[request] = System.nanoTime() - requestBegan;
+                                    done.countDown();
+                                },
+                                error -> {
+                                    failures.incrementAndGet();
+                                    done.countDown();
+                                });
+            } catch (UserNotLoggedInException e) {
+                failures.incrementAndGet();
+                done.countDown();
+            }
+        }
+        assertThat(done.await(5, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - began;
+
+        return new LoadResult(requests, elapsed, latencies, failures.get(), threads.getPeakThreadCount());
+    }
+
+    private static User ownerFor(int request) {
+        User owner = new User();
+        owner.setId(VIEWER_ID + 1 + (request % FRIENDS));
+        return owner;
+    }
+
+    private record LoadResult(int requests, long elapsedNanos, long[] latencies, int failures, int peakThreads) {
+
+        double throughputPerSecond() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        double percentileMillis(double percentile) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(percentile * sorted.length) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,.0f req/s, p50 %.1f ms, p99 %.1f ms, peak %d platform threads, %d failures",
+                    throughputPerSecond(), percentileMillis(0.50), percentileMillis(0.99), peakThreads, failures);
+        }
+    }
+}
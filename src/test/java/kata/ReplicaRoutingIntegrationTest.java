@@ -0,0 +1,188 @@
+package kata;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs against two independent databases standing in for a primary and its replica. The tests
+ * "replicate" by writing the same rows to both, give the copies different trip names to see which
+ * database answered, and set the replica's heartbeat to simulate lag.
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = {"trips.replica.enabled=true", "trips.replica.lag-check-interval=1h"})
+@Testcontainers
+class ReplicaRoutingIntegrationTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> primary = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Container
+    static PostgreSQLContainer<?> replica = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @DynamicPropertySource
+    static void replicaProperties(DynamicPropertyRegistry registry) {
+        registry.add("trips.replica.url", replica::getJdbcUrl);
+        registry.add("trips.replica.username", replica::getUsername);
+        registry.add("trips.replica.password", replica::getPassword);
+    }
+
+    @BeforeAll
+    static void migrateReplica() {
+        Flyway.configure()
+                .dataSource(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword())
+                .load()
+                .migrate();
+    }
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private FriendshipService friendshipService;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    @MockitoBean
+    private AuthenticationFacade authenticationFacade;
+
+    private JdbcTemplate replicaJdbcTemplate;
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        replicaJdbcTemplate = new JdbcTemplate(replicaDataSource);
+        for (JdbcTemplate database : new JdbcTemplate[]{jdbcTemplate, replicaJdbcTemplate}) {
+            database.execute("DELETE FROM user_trip");
+            database.execute("DELETE FROM friendship");
+            database.execute("DELETE FROM trip");
+            database.execute("DELETE FROM user_table");
+            database.update("INSERT INTO user_table (id, username) VALUES (1, 'alice'), (2, 'bob'), (3, 'charlie'), (4, 'dave')");
+            database.update("INSERT INTO friendship (user_low, user_high) VALUES (1, 2), (2, 4)");
+        }
+        jdbcTemplate.update("INSERT INTO trip (id, name) VALUES (10, 'Paris on the primary')");
+        replicaJdbcTemplate.update("INSERT INTO trip (id, name) VALUES (10, 'Paris on the replica')");
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (2, 10)");
+        replicaJdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (2, 10)");
+
+        bob = new User();
+        bob.setId(2L);
+        bob.setUsername("bob");
+    }
+
+    @Test
+    void should_serve_read_only_lookups_from_a_fresh_replica_and_write_to_the_primary() throws UserNotLoggedInException {
+        // Given: The replica has caught up
+        replicaCatchesUp();
+        loggedInAs(1L, "alice");
+
+        // When: Alice reads Bob's trips, then befriends Charlie
+        String tripName = tripService.getTripsByUser(bob).get(0).name();
+        friendshipService.addFriendship(1L, 3L);
+
+        // Then: The read came from the replica, the write went to the primary only
+        assertThat(tripName).isEqualTo("Paris on the replica");
+        assertThat(friendshipCount(jdbcTemplate, 1L, 3L)).isEqualTo(1);
+        assertThat(friendshipCount(replicaJdbcTemplate, 1L, 3L)).isZero();
+    }
+
+    @Test
+    void should_fall_back_to_the_primary_while_the_replica_lags_beyond_the_accepted_staleness() throws UserNotLoggedInException {
+        // Given: The replica is a minute behind
+        replicaFallsBehind(Duration.ofMinutes(1));
+        loggedInAs(4L, "dave");
+
+        // When: Dave reads Bob's trips with the default bound, then accepting five minutes
+        String withDefaultBound = tripService.getTripsByUser(bob).get(0).name();
+        String withRelaxedBound;
+        try (ReplicaRouter.Scope ignored = ReplicaRouter.allowStaleness(Duration.ofMinutes(5))) {
+            withRelaxedBound = tripService.getTripsByUser(bob).get(0).name();
+        }
+
+        // Then: Only the relaxed request may use the replica
+        assertThat(withDefaultBound).isEqualTo("Paris on the primary");
+        assertThat(withRelaxedBound).isEqualTo("Paris on the replica");
+    }
+
+    @Test
+    void should_read_own_writes_from_the_primary_until_the_replica_has_applied_them() throws UserNotLoggedInException {
+        // Given: Alice has just changed a friendship, and the replica has not caught up since
+        replicaCatchesUp();
+        friendshipService.addFriendship(1L, 3L);
+        loggedInAs(1L, "alice");
+
+        // When: Alice reads Bob's trips before and after the replica catches up
+        String beforeCatchingUp = tripService.getTripsByUser(bob).get(0).name();
+        replicaCatchesUp();
+        String afterCatchingUp = tripService.getTripsByUser(bob).get(0).name();
+
+        // Then: She is only sent to the replica once it has her write
+        assertThat(beforeCatchingUp).isEqualTo("Paris on the primary");
+        assertThat(afterCatchingUp).isEqualTo("Paris on the replica");
+    }
+
+    @Test
+    void should_parse_the_accepted_staleness_from_max_stale() {
+        assertThat(ReplicaStalenessFilter.maxStaleOf("no-cache, max-stale=30")).isEqualTo(Duration.ofSeconds(30));
+        assertThat(ReplicaStalenessFilter.maxStaleOf("max-stale")).isNull();
+        assertThat(ReplicaStalenessFilter.maxStaleOf("max-stale=soon")).isNull();
+        assertThat(ReplicaStalenessFilter.maxStaleOf(null)).isNull();
+    }
+
+    private void replicaCatchesUp() {
+        // A heartbeat ahead of the primary's reads as no lag at all
+        replicaJdbcTemplate.update("UPDATE replication_heartbeat SET beat_at = clock_timestamp() + interval '1 hour'");
+        replicaLagMonitor.refresh();
+    }
+
+    private void replicaFallsBehind(Duration lag) {
+        replicaJdbcTemplate.update("UPDATE replication_heartbeat SET beat_at = clock_timestamp() - ?::interval",
+                lag.toSeconds() + " seconds");
+        replicaLagMonitor.refresh();
+    }
+
+    private void loggedInAs(Long id, String username) {
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(id, username));
+    }
+
+    private static int friendshipCount(JdbcTemplate database, Long userId, Long friendId) {
+        return database.queryForObject(
+                "SELECT count(*) FROM friendship WHERE user_low = LEAST(?, ?) AND user_high = GREATEST(?, ?)",
+                Integer.class, userId, friendId, userId, friendId);
+    }
+}
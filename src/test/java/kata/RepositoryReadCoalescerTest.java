@@ -0,0 +1,37 @@
+package kata;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RepositoryReadCoalescerTest {
+
+    @Test
+    void copy_shouldGiveEveryCallerUsersAndCollectionsOfItsOwn() {
+        User alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+        List<User> friends = new ArrayList<>(List.of(alice));
+        Map<Long, List<Trip>> tripsByUser = new LinkedHashMap<>(Map.of(1L, new ArrayList<>(List.of(new Trip(10L, "Paris")))));
+
+        @SuppressWarnings("unchecked")
+        List<User> copiedFriends = (List<User>) RepositoryReadCoalescer.copy(friends);
+        @SuppressWarnings("unchecked")
+        Optional<User> copiedUser = (Optional<User>) RepositoryReadCoalescer.copy(Optional.of(alice));
+        @SuppressWarnings("unchecked")
+        Map<Long, List<Trip>> copiedTrips = (Map<Long, List<Trip>>) RepositoryReadCoalescer.copy(tripsByUser);
+        copiedFriends.get(0).setUsername("mallory");
+        copiedUser.orElseThrow().setUsername("eve");
+        copiedTrips.get(1L).add(new Trip(11L, "London"));
+
+        assertThat(alice.getUsername()).isEqualTo("alice");
+        assertThat(copiedUser.orElseThrow().getId()).isEqualTo(1L);
+        assertThat(tripsByUser.get(1L)).containsExactly(new Trip(10L, "Paris"));
+    }
+}
@@ -0,0 +1,260 @@
+package kata;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs against three databases: the application's own, which only holds the bucket placement and
+ * the user id sequence here, and two shards.
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = {"trips.sharding.enabled=true", "trips.sharding.buckets=16",
+        "trips.sharding.placement-refresh-interval=1h"})
+@Testcontainers
+class ShardingIntegrationTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Container
+    static PostgreSQLContainer<?> shard0 = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Container
+    static PostgreSQLContainer<?> shard1 = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @DynamicPropertySource
+    static void shardProperties(DynamicPropertyRegistry registry) {
+        List<PostgreSQLContainer<?>> shards = List.of(shard0, shard1);
+        for (int i = 0; i < shards.size(); i++) {
+            PostgreSQLContainer<?> shard = shards.get(i);
+            registry.add("trips.sharding.shards[" + i + "].url", shard::getJdbcUrl);
+            registry.add("trips.sharding.shards[" + i + "].username", shard::getUsername);
+            registry.add("trips.sharding.shards[" + i + "].password", shard::getPassword);
+        }
+    }
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private FriendshipService friendshipService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ShardedTripRepository tripRepository;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private TripServiceProperties properties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockitoBean
+    private AuthenticationFacade authenticationFacade;
+
+    private final Set<Integer> usedBuckets = new HashSet<>();
+    private long nextUserId = 1_000;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("UPDATE shard_bucket SET shard = bucket % 2");
+        shardRouter.refresh();
+        for (Shard shard : shardRouter.shards()) {
+            shard.jdbcTemplate().execute("DELETE FROM user_trip");
+            shard.jdbcTemplate().execute("DELETE FROM friendship");
+            shard.jdbcTemplate().execute("DELETE FROM trip");
+            shard.jdbcTemplate().execute("DELETE FROM user_table");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+    }
+
+    @Test
+    void should_store_a_cross_shard_friendship_on_both_shards_and_show_trips_across_them() throws UserNotLoggedInException {
+        // Given: Alice on one shard befriends Bob on the other; Charlie, on Alice's shard, does not
+        User alice = createUser("alice", 0);
+        User bob = createUser("bob", 1);
+        User charlie = createUser("charlie", 0);
+        addTrip(bob, "Lisbon");
+        friendshipService.addFriendship(alice.getId(), bob.getId());
+
+        // When / Then: Both shards hold the friendship, and it decides visibility in every mode
+        assertThat(friendshipRows(0)).isEqualTo(1);
+        assertThat(friendshipRows(1)).isEqualTo(1);
+        for (TripServiceProperties.LookupMode mode : List.of(
+                TripServiceProperties.LookupMode.FRIEND_LIST, TripServiceProperties.LookupMode.SINGLE_QUERY)) {
+            properties.setLookupMode(mode);
+            loggedInAs(alice);
+            assertThat(tripService.getTripsByUser(bob)).extracting(Trip::name).containsExactly("Lisbon");
+            loggedInAs(charlie);
+            assertThat(tripService.getTripsByUser(bob)).isEmpty();
+        }
+    }
+
+    @Test
+    void should_answer_friend_lists_and_networks_across_shards() {
+        // Given: Alice - Bob - Carol, with Bob on the other shard
+        User alice = createUser("alice", 0);
+        User bob = createUser("bob", 1);
+        User carol = createUser("carol", 0);
+        friendshipService.addFriendship(alice.getId(), bob.getId());
+        friendshipService.addFriendship(bob.getId(), carol.getId());
+
+        // When / Then
+        assertThat(userRepository.findFriendsByUserId(bob.getId()))
+                .extracting(User::getUsername)
+                .containsExactlyInAnyOrder("alice", "carol");
+        assertThat(userRepository.findUserIdsWithinHops(alice.getId(), 2, 10))
+                .containsExactly(bob.getId(), carol.getId());
+    }
+
+    @Test
+    void should_move_a_bucket_with_its_trips_and_friendships() throws UserNotLoggedInException {
+        // Given: Bob on shard 1 has a trip, a friend on shard 0 and a friend staying on shard 1
+        User alice = createUser("alice", 0);
+        User bob = createUser("bob", 1);
+        User dave = createUser("dave", 1);
+        addTrip(bob, "Lisbon");
+        friendshipService.addFriendship(alice.getId(), bob.getId());
+        friendshipService.addFriendship(bob.getId(), dave.getId());
+
+        // When: Bob's bucket moves to shard 0
+        int moved = shardRebalancer.moveBucket(shardRouter.bucketOf(bob.getId()), 0);
+
+        // Then: Bob, his trip and both friendships are on shard 0; shard 1 keeps only Dave's side
+        assertThat(moved).isEqualTo(1);
+        assertThat(shardRouter.shardOf(bob.getId()).number()).isZero();
+        assertThat(count(1, "SELECT count(*) FROM user_table WHERE id = ?", bob.getId())).isZero();
+        assertThat(count(1, "SELECT count(*) FROM trip")).isZero();
+        assertThat(friendshipRows(0)).isEqualTo(2);
+        assertThat(friendshipRows(1)).isEqualTo(1);
+        loggedInAs(alice);
+        assertThat(tripService.getTripsByUser(bob)).extracting(Trip::name).containsExactly("Lisbon");
+        assertThat(userRepository.findFriendIdsByUserId(dave.getId())).containsExactly(bob.getId());
+    }
+
+    @Test
+    void should_refuse_to_move_a_trip_onto_a_different_trip_with_the_same_id() {
+        // Given: Shard 0 holds a trip under the id of Bob's trip that was not handed out by the catalog
+        User bob = createUser("bob", 1);
+        Trip lisbon = addTrip(bob, "Lisbon");
+        shardRouter.shards().get(0).jdbcTemplate().update("INSERT INTO trip (id, name) VALUES (?, 'Oslo')", lisbon.id());
+
+        // When / Then: The move fails and leaves Bob where he was
+        assertThatThrownBy(() -> shardRebalancer.moveBucket(shardRouter.bucketOf(bob.getId()), 0))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(String.valueOf(lisbon.id()));
+        assertThat(shardRouter.shardOf(bob.getId()).number()).isEqualTo(1);
+        assertThat(count(0, "SELECT count(*) FROM user_table WHERE id = ?", bob.getId())).isZero();
+    }
+
+    @Test
+    void should_refuse_bulk_imports() {
+        // When / Then: Imported rows would land in the catalog database, where no lookup reads them
+        assertThatThrownBy(() -> bulkImportService.importFriendships(new StringReader("1,2"), BulkImportService.Format.CSV))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("trips.sharding.enabled");
+    }
+
+    @Test
+    void should_spread_users_evenly_after_a_shard_is_added() {
+        // Given: Everything lives on shard 0, as if shard 1 had just been added
+        jdbcTemplate.update("UPDATE shard_bucket SET shard = 0");
+        shardRouter.refresh();
+        User alice = createUser("alice", 0);
+        User bob = createUser("bob", 0);
+        friendshipService.addFriendship(alice.getId(), bob.getId());
+
+        // When
+        List<ShardRebalancer.BucketMove> moves = shardRebalancer.rebalance();
+
+        // Then: Half the buckets moved, and every user is found where the placement says
+        assertThat(moves).hasSize(8);
+        assertThat(shardRouter.placement()).containsOnly(0, 1);
+        assertThat(Arrays.stream(shardRouter.placement()).filter(shard -> shard == 1).count()).isEqualTo(8);
+        for (User user : List.of(alice, bob)) {
+            assertThat(count(shardRouter.shardOf(user.getId()).number(), "SELECT count(*) FROM user_table WHERE id = ?", user.getId()))
+                    .isEqualTo(1);
+        }
+        assertThat(userRepository.existsFriendship(alice.getId(), bob.getId())).isTrue();
+        assertThat(userRepository.existsFriendship(bob.getId(), alice.getId())).isTrue();
+    }
+
+    /**
+     * Saves a user whose id lands on the given shard, in a bucket of its own.
+     */
+    private User createUser(String username, int shard) {
+        long id = nextUserId++;
+        while (shardRouter.shardOf(id).number() != shard || usedBuckets.contains(shardRouter.bucketOf(id))) {
+            id = nextUserId++;
+        }
+        usedBuckets.add(shardRouter.bucketOf(id));
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return userRepository.save(user);
+    }
+
+    private Trip addTrip(User owner, String name) {
+        return tripRepository.addTrip(owner.getId(), name);
+    }
+
+    private void loggedInAs(User user) {
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(user.getId(), user.getUsername()));
+    }
+
+    private int friendshipRows(int shard) {
+        return count(shard, "SELECT count(*) FROM friendship");
+    }
+
+    private int count(int shard, String sql, Object... args) {
+        return shardRouter.shards().get(shard).jdbcTemplate().queryForObject(sql, Integer.class, args);
+    }
+}
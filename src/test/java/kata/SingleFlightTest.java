@@ -0,0 +1,116 @@
+package kata;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    static final int WAITERS = 10;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final CountDownLatch waitersJoined = new CountDownLatch(WAITERS);
+    private final SingleFlight<Long, List<String>> singleFlight =
+            new SingleFlight<>(ArrayList::new, key -> waitersJoined.countDown());
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void execute_shouldRunConcurrentCallsForTheSameKeyOnceAndGiveEveryCallerItsOwnCopy() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<List<String>> query = () -> {
+            executions.incrementAndGet();
+            release.await();
+            return List.of("Trip to Paris");
+        };
+
+        List<Future<List<String>>> results = new ArrayList<>();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        results.add(submit(() -> {
+            leaderStarted.countDown();
+            return query.call();
+        }));
+        leaderStarted.await();
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(submit(query));
+        }
+        assertThat(waitersJoined.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+
+        List<List<String>> returned = new ArrayList<>();
+        for (Future<List<String>> result : results) {
+            returned.add(result.get(5, TimeUnit.SECONDS));
+        }
+        assertThat(executions).hasValue(1);
+        assertThat(returned).hasSize(WAITERS + 1).allSatisfy(trips -> assertThat(trips).containsExactly("Trip to Paris"));
+        returned.get(0).add("Trip to London");
+        assertThat(returned.get(1)).containsExactly("Trip to Paris");
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void execute_shouldRethrowTheFailureToEveryWaiter() throws Exception {
+        IllegalStateException failure = new IllegalStateException("connection reset");
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<List<String>>> results = new ArrayList<>();
+        results.add(submit(() -> {
+            leaderStarted.countDown();
+            release.await();
+            throw failure;
+        }));
+        leaderStarted.await();
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(submit(() -> List.of("never run")));
+        }
+        assertThat(waitersJoined.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+
+        for (Future<List<String>> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause().isSameAs(failure);
+        }
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void execute_shouldRunAgainOnceThePreviousCallHasFinished() throws Throwable {
+        AtomicInteger executions = new AtomicInteger();
+
+        singleFlight.execute(1L, () -> List.of("first " + executions.incrementAndGet()));
+        List<String> second = singleFlight.execute(1L, () -> List.of("second " + executions.incrementAndGet()));
+
+        assertThat(second).containsExactly("second 2");
+        assertThat(waitersJoined.getCount()).isEqualTo(WAITERS);
+    }
+
+    private Future<List<String>> submit(SingleFlight.Call<List<String>> call) {
+        return executor.submit(() -> {
+            try {
+                return singleFlight.execute(1L, call);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package kata;
+
+import java.util.List;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Launched by {@link StartupTimeTest} in a JVM of its own: starts the application, looks up the
+ * trips of user {@code probe.owner-id} as user {@code probe.viewer-id}, prints {@link #SUCCEEDED}
+ * and exits.
+ */
+class StartupProbe {
+
+    static final String SUCCEEDED = "First trip lookup succeeded";
+
+    public static void main(String[] args) throws UserNotLoggedInException {
+        long viewerId = Long.getLong("probe.viewer-id");
+        long ownerId = Long.getLong("probe.owner-id");
+
+        SpringApplication application = new SpringApplication(App.class);
+        // Under AOT the generated context initializer is found through the main class
+        application.setMainApplicationClass(App.class);
+        application.addInitializers(context -> ((GenericApplicationContext) context).registerBean(
+                "probeViewer", AuthenticationFacade.class, () -> () -> new CurrentUser(viewerId, "viewer"),
+                definition -> definition.setPrimary(true)));
+        ConfigurableApplicationContext context = application.run(args);
+
+        User owner = new User();
+        owner.setId(ownerId);
+        List<Trip> trips = context.getBean(TripService.class).getTripsByUser(owner);
+        if (trips.isEmpty()) {
+            throw new IllegalStateException("User " + viewerId + " sees no trips of user " + ownerId);
+        }
+        System.out.println(SUCCEEDED);
+        System.exit(SpringApplication.exit(context));
+    }
+}
@@ -0,0 +1,158 @@
+package kata;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Launches the extracted application in fresh JVMs, once per startup option, and measures the time
+ * from launch to the first successful trip lookup ({@link StartupProbe}). Run with
+ * {@code ./gradlew startupBenchmark}, adding {@code -PfastStartup} to include Spring AOT. Every
+ * option is launched a few times and the median is printed.
+ */
+@Tag("startup")
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@Testcontainers
+class StartupTimeTest {
+
+    private static final long VIEWER_ID = 1L;
+    private static final long OWNER_ID = 2L;
+    private static final int LAUNCHES = 5;
+    private static final long LAUNCH_TIMEOUT_SECONDS = 60;
+
+    private static final Path APPLICATION = Path.of(System.getProperty("startup.application", "build/startup/application/app.jar"));
+    private static final Path CDS_ARCHIVE = Path.of(System.getProperty("startup.cds-archive", "build/startup/application.jsa"));
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @BeforeAll
+    static void seed() {
+        Flyway.configure().dataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()).load().migrate();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+                new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()));
+        jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, 'viewer'), (?, 'owner')", VIEWER_ID, OWNER_ID);
+        jdbcTemplate.update("INSERT INTO friendship (user_low, user_high) VALUES (?, ?)", VIEWER_ID, OWNER_ID);
+        Long tripId = jdbcTemplate.queryForObject("INSERT INTO trip (name) VALUES ('Lisbon') RETURNING id", Long.class);
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", OWNER_ID, tripId);
+    }
+
+    @Test
+    void should_report_time_to_first_trip_lookup_for_each_startup_option() throws Exception {
+        assumeTrue(Files.exists(APPLICATION), "Run through ./gradlew startupBenchmark, which extracts the boot jar first");
+
+        List<StartupOption> options = new ArrayList<>();
+        options.add(new StartupOption("default", List.of(), List.of()));
+        options.add(new StartupOption("fast-startup profile", List.of(), List.of("--spring.profiles.active=fast-startup")));
+        options.add(new StartupOption("fast-startup profile, Flyway skipped", List.of(),
+                List.of("--spring.profiles.active=fast-startup", "--trips.startup.flyway=skip")));
+        if (Files.exists(CDS_ARCHIVE)) {
+            options.add(new StartupOption("fast-startup profile + CDS", List.of("-XX:SharedArchiveFile=" + CDS_ARCHIVE),
+                    List.of("--spring.profiles.active=fast-startup")));
+        }
+        if (containsAotCode(APPLICATION)) {
+            List<String> jvmArgs = new ArrayList<>(List.of("-Dspring.aot.enabled=true"));
+            if (Files.exists(CDS_ARCHIVE)) {
+                jvmArgs.add("-XX:SharedArchiveFile=" + CDS_ARCHIVE);
+            }
+            options.add(new StartupOption("fast-startup profile + AOT" + (Files.exists(CDS_ARCHIVE) ? " + CDS" : ""),
+                    jvmArgs, List.of("--spring.profiles.active=fast-startup")));
+        }
+
+        System.out.println("Time to first successful trip lookup, median of " + LAUNCHES + " launches");
+        for (StartupOption option : options) {
+            long[] millis = new long[LAUNCHES];
+            for (int launch = 0; launch < LAUNCHES; launch++) {
+                millis[launch] = timeToFirstLookup(option);
+            }
+            Arrays.sort(millis);
+            System.out.printf("  %-45s %,6d ms (fastest %,d ms)%n", option.name(), millis[LAUNCHES / 2], millis[0]);
+            assertThat(millis[0]).isPositive();
+        }
+    }
+
+    private static long timeToFirstLookup(StartupOption option) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(option.jvmArgs());
+        command.add("-Dprobe.viewer-id=" + VIEWER_ID);
+        command.add("-Dprobe.owner-id=" + OWNER_ID);
+        command.add("-cp");
+        command.add(APPLICATION + File.pathSeparator + probeClasses());
+        command.add(StartupProbe.class.getName());
+        command.add("--spring.datasource.url=" + postgres.getJdbcUrl());
+        command.add("--spring.datasource.username=" + postgres.getUsername());
+        command.add("--spring.datasource.password=" + postgres.getPassword());
+        command.addAll(option.applicationArgs());
+
+        long launched = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Deque<String> lastLines = new ArrayDeque<>();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.equals(StartupProbe.SUCCEEDED)) {
+                    long elapsed = System.nanoTime() - launched;
+                    output.transferTo(Writer.nullWriter());
+                    assertThat(process.waitFor(LAUNCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+                    return TimeUnit.NANOSECONDS.toMillis(elapsed);
+                }
+                lastLines.addLast(line);
+                if (lastLines.size() > 40) {
+                    lastLines.removeFirst();
+                }
+            }
+        } finally {
+            process.destroyForcibly();
+        }
+        throw new AssertionError(option.name() + " never looked up a trip:\n" + String.join("\n", lastLines));
+    }
+
+    private static Path probeClasses() {
+        try {
+            return Path.of(StartupProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean containsAotCode(Path application) throws IOException {
+        try (JarFile jar = new JarFile(application.toFile())) {
+            return jar.getEntry(App.class.getName().replace('.', '/') + "__ApplicationContextInitializer.class") != null;
+        }
+    }
+
+    private record StartupOption(String name, List<String> jvmArgs, List<String> applicationArgs) {
+    }
+}
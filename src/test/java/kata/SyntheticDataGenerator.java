@@ -0,0 +1,108 @@
+package kata;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Bulk-loads synthetic users, trips and friendships through the PostgreSQL COPY protocol.
+ * <p>
+ * Each call appends to whatever is already in the database. Trips belong to one owner picked
+ * uniformly. Friendships are power-law distributed: one end of every edge is picked uniformly,
+ * the other from a skewed popularity distribution, so a few users end up with very large friend
+ * lists the way celebrities do. Friendships are stored once per pair like the application
+ * stores them.
+ */
+public class SyntheticDataGenerator {
+
+    /**
+     * Higher values concentrate more edges on fewer users; 1 means no skew.
+     */
+    private static final double POPULARITY_SKEW = 3.0;
+
+    private final DataSource dataSource;
+    private final Random random;
+
+    public SyntheticDataGenerator(DataSource dataSource, long seed) {
+        this.dataSource = dataSource;
+        this.random = new Random(seed);
+    }
+
+    public Result generate(int users, int averageTripsPerUser, int averageFriends) throws SQLException {
+        long began = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+
+            long firstUserId = maxId(connection, "user_table") + 1;
+            long lastUserId = firstUserId + users - 1;
+            try (CopyWriter copy = new CopyWriter(copyManager.copyIn("COPY user_table (id, username) FROM STDIN"))) {
+                for (long id = firstUserId; id <= lastUserId; id++) {
+                    copy.row(id, "user" + id);
+                }
+                copy.end();
+            }
+
+            long trips = (long) users * averageTripsPerUser;
+            long firstTripId = maxId(connection, "trip") + 1;
+            LocalDateTime now = LocalDateTime.now().withNano(0);
+            try (CopyWriter copy = new CopyWriter(copyManager.copyIn("COPY trip (id, name, created_at) FROM STDIN"))) {
+                for (long id = firstTripId; id < firstTripId + trips; id++) {
+                    copy.row(id, "Trip " + id, now.minusMinutes(random.nextInt(525_600)).toString());
+                }
+                copy.end();
+            }
+            try (CopyWriter copy = new CopyWriter(copyManager.copyIn("COPY user_trip (user_id, trip_id) FROM STDIN"))) {
+                for (long id = firstTripId; id < firstTripId + trips; id++) {
+                    copy.row(firstUserId + random.nextInt(users), id);
+                }
+                copy.end();
+            }
+
+            long friendships = (long) users * averageFriends / 2;
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE generated_friendship (user_id BIGINT, friend_id BIGINT)");
+            }
+            try (CopyWriter copy = new CopyWriter(copyManager.copyIn("COPY generated_friendship FROM STDIN"))) {
+                for (long i = 0; i < friendships; i++) {
+                    long userId = firstUserId + random.nextInt(users);
+                    long popularId = 1 + (long) (lastUserId * Math.pow(random.nextDouble(), POPULARITY_SKEW));
+                    copy.row(userId, popularId);
+                }
+                copy.end();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("""
+                        INSERT INTO friendship (user_low, user_high)
+                        SELECT DISTINCT LEAST(g.user_id, g.friend_id), GREATEST(g.user_id, g.friend_id)
+                        FROM generated_friendship g
+                        JOIN user_table u ON u.id = g.friend_id
+                        WHERE g.user_id <> g.friend_id
+                        ON CONFLICT DO NOTHING
+                        """);
+                statement.execute("DROP TABLE generated_friendship");
+                statement.execute("SELECT setval(pg_get_serial_sequence('user_table', 'id'), " + lastUserId + ")");
+                statement.execute("SELECT setval(pg_get_serial_sequence('trip', 'id'), (SELECT max(id) FROM trip))");
+                statement.execute("ANALYZE");
+            }
+            return new Result(users, trips, friendships, (System.nanoTime() - began) / 1_000_000);
+        }
+    }
+
+    private static long maxId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT coalesce(max(id), 0) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    public record Result(int users, long trips, long friendships, long elapsedMillis) {
+    }
+}
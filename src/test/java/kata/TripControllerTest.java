@@ -0,0 +1,99 @@
+package kata;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(TripController.class)
+@WithMockUser
+class TripControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private TripService tripService;
+
+    @Test
+    void getTrips_shouldReturnTripsWithETag() throws Throwable {
+        when(tripService.getTripsVersionTag(argThat(user -> user.getId() == 2L))).thenReturn(Optional.of("v7"));
+        when(tripService.getTripsByUser(argThat(user -> user.getId() == 2L)))
+                .thenReturn(List.of(new Trip(1L, "Trip to Paris")));
+
+        mockMvc.perform(get("/users/2/trips"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"v7\""))
+                .andExpect(jsonPath("$[0].name").value("Trip to Paris"));
+    }
+
+    @Test
+    void getTrips_whenETagMatches_shouldReturnNotModifiedWithoutLoadingTrips() throws Throwable {
+        when(tripService.getTripsVersionTag(any())).thenReturn(Optional.of("v7"));
+
+        mockMvc.perform(get("/users/2/trips").header("If-None-Match", "\"v7\""))
+                .andExpect(status().isNotModified());
+
+        verify(tripService, never()).getTripsByUser(any());
+    }
+
+    @Test
+    void getTrips_whenUserDoesNotExist_shouldReturnNotFound() throws Throwable {
+        when(tripService.getTripsVersionTag(any())).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/users/99/trips"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getTrips_whenNotLoggedIn_shouldReturnUnauthorized() throws Throwable {
+        when(tripService.getTripsVersionTag(any())).thenThrow(new UserNotLoggedInException());
+
+        mockMvc.perform(get("/users/2/trips"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void streamTrips_shouldWriteOneJsonObjectPerLine() throws Throwable {
+        when(tripService.getTripsVersionTag(any())).thenReturn(Optional.of("v7"));
+        doAnswer(invocation -> {
+            Consumer<Trip> consumer = invocation.getArgument(1);
+            consumer.accept(new Trip(1L, "Trip to Paris"));
+            consumer.accept(new Trip(2L, "Tokyo Adventure"));
+            return null;
+        }).when(tripService).streamTripsByUser(any(), any());
+
+        MvcResult result = mockMvc.perform(get("/users/2/trips").accept(TripController.APPLICATION_NDJSON_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"v7\""))
+                .andExpect(content().string("""
+                        {"id":1,"name":"Trip to Paris"}
+                        {"id":2,"name":"Tokyo Adventure"}
+                        """));
+    }
+}
@@ -0,0 +1,130 @@
+package kata;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = "trips.trip-list-cache.enabled=true")
+@Testcontainers
+class TripListCacheIntegrationTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @Autowired
+    private TripListCache tripListCache;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TripRepository tripRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User alice;
+    private Trip parisTrip;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        alice = new User();
+        alice.setUsername("alice");
+        alice = userRepository.save(alice);
+
+        parisTrip = tripRepository.save(new Trip("Trip to Paris"));
+
+        await(tripListCache::isListening);
+        tripListCache.invalidateAll();
+    }
+
+    @Test
+    void should_drop_cached_trip_list_when_another_connection_assigns_a_trip() throws InterruptedException {
+        // Given: Alice's empty trip list is cached
+        assertThat(tripListCache.tripsOf(alice.getId())).isEmpty();
+
+        // When: a trip is assigned to her outside this node, as another instance would
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", alice.getId(), parisTrip.id());
+
+        // Then: the notification drops the cached list and the next read sees the trip
+        await(() -> tripListCache.tripsOf(alice.getId()).contains(parisTrip));
+    }
+
+    @Test
+    void should_drop_cached_trip_list_when_one_of_its_trips_is_renamed() throws InterruptedException {
+        // Given: Alice's trip list is cached
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", alice.getId(), parisTrip.id());
+        assertThat(tripListCache.tripsOf(alice.getId())).containsExactly(parisTrip);
+
+        // When: the trip is renamed
+        jdbcTemplate.update("UPDATE trip SET name = 'Weekend in Paris' WHERE id = ?", parisTrip.id());
+
+        // Then: the next read sees the new name
+        await(() -> tripListCache.tripsOf(alice.getId()).equals(List.of(new Trip(parisTrip.id(), "Weekend in Paris"))));
+    }
+
+    @Test
+    void should_keep_cached_trip_list_when_notified_of_an_older_version() {
+        // Given: Alice's trip list is cached at her current trips_version
+        jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", alice.getId(), parisTrip.id());
+        tripListCache.tripsOf(alice.getId());
+        long version = userRepository.findTripsVersion(alice.getId()).orElseThrow();
+        double misses = misses();
+
+        // When: a late notification for the version before arrives
+        tripListCache.onTripListChanged(alice.getId(), version - 1);
+
+        // Then: the entry is still served from memory
+        assertThat(tripListCache.tripsOf(alice.getId())).containsExactly(parisTrip);
+        assertThat(misses()).isEqualTo(misses);
+
+        // And: a notification for the version it was read at does not evict it either
+        tripListCache.onTripListChanged(alice.getId(), version);
+        tripListCache.tripsOf(alice.getId());
+        assertThat(misses()).isEqualTo(misses);
+
+        // And: a newer version does
+        tripListCache.onTripListChanged(alice.getId(), version + 1);
+        tripListCache.tripsOf(alice.getId());
+        assertThat(misses()).isEqualTo(misses + 1);
+    }
+
+    private double misses() {
+        return meterRegistry.get("cache.gets").tag("cache", "trip_lists").tag("result", "miss").functionCounter().count();
+    }
+
+    private static void await(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.get()) {
+            assertThat(System.nanoTime()).as("condition not met within 5 seconds").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package kata;
 
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
@@ -13,10 +16,24 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javax.sql.DataSource;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.Mockito.when;
 
 @DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
@@ -40,9 +57,24 @@ class TripServiceIntegrationTest {
     @Autowired
     private TripRepository tripRepository;
 
+    @Autowired
+    private FriendshipService friendshipService;
+
+    @Autowired
+    private VisibleTripsReadModel visibleTripsReadModel;
+
+    @Autowired
+    private TripServiceProperties properties;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @MockitoBean
     private AuthenticationFacade authenticationFacade;
 
@@ -56,7 +88,7 @@ class TripServiceIntegrationTest {
     void setUp() {
         // Clear all data using SQL to avoid Spring Data JDBC collection issues
         jdbcTemplate.execute("DELETE FROM user_trip");
-        jdbcTemplate.execute("DELETE FROM user_friends");
+        jdbcTemplate.execute("DELETE FROM friendship");
         jdbcTemplate.execute("DELETE FROM trip");
         jdbcTemplate.execute("DELETE FROM user_table");
 
@@ -221,4 +253,398 @@ class TripServiceIntegrationTest {
         assertThat(charlieTrips).hasSize(1);
         assertThat(charlieTrips.get(0).name()).isEqualTo("London Business Trip");
     }
+
+    @Test
+    void should_map_friends_and_friendship_existence_by_hand() {
+        // Given: Alice is friends with Bob and Charlie, Bob and Charlie are not friends
+        makeFriends(alice, bob);
+        makeFriends(alice, charlie);
+
+        // When: Alice's friends are loaded
+        List<User> friends = userRepository.findFriendsByUserId(alice.getId());
+
+        // Then: Both come back with id and username, and existence is answered either way round
+        assertThat(friends).extracting(User::getId, User::getUsername).containsExactlyInAnyOrder(
+                tuple(bob.getId(), "bob"), tuple(charlie.getId(), "charlie"));
+        assertThat(userRepository.existsFriendship(alice.getId(), bob.getId())).isTrue();
+        assertThat(userRepository.existsFriendship(charlie.getId(), alice.getId())).isTrue();
+        assertThat(userRepository.existsFriendship(bob.getId(), charlie.getId())).isFalse();
+    }
+
+    @Test
+    void should_find_trips_visible_to_viewer_in_a_single_query() {
+        // Given: Alice and Bob are friends, Charlie is nobody's friend, both Bob and Charlie have trips
+        makeFriends(alice, bob);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(charlie, londonTrip);
+
+        // When: Alice's visibility is checked inside the trip query itself
+        List<Trip> bobTrips = tripRepository.findTripsByUserVisibleTo(bob.getId(), alice.getId());
+        List<Trip> charlieTrips = tripRepository.findTripsByUserVisibleTo(charlie.getId(), alice.getId());
+
+        // Then: Only the friend's trips come back
+        assertThat(bobTrips).extracting(Trip::name).containsExactly("Trip to Paris");
+        assertThat(charlieTrips).isEmpty();
+    }
+
+    @Test
+    void should_return_trips_for_a_batch_of_users() throws UserNotLoggedInException {
+        // Given: Alice is friends with Bob and Charlie, Diana is a stranger with a trip
+        User diana = new User();
+        diana.setUsername("diana");
+        diana = userRepository.save(diana);
+
+        makeFriends(alice, bob);
+        makeFriends(alice, charlie);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(bob, londonTrip);
+        assignTripToUser(diana, parisTrip);
+
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        // When: Alice requests the trips of all three in one call
+        Map<Long, List<Trip>> trips = tripService.getTripsByUsers(List.of(bob, charlie, diana));
+
+        // Then: Only friends' trips are returned, every requested user has an entry
+        assertThat(trips).containsOnlyKeys(bob.getId(), charlie.getId(), diana.getId());
+        assertThat(trips.get(bob.getId())).extracting(Trip::name)
+                .containsExactlyInAnyOrder("Trip to Paris", "London Business Trip");
+        assertThat(trips.get(charlie.getId())).isEmpty();
+        assertThat(trips.get(diana.getId())).isEmpty();
+    }
+
+    @Test
+    void should_see_trips_after_friendship_is_added_and_not_after_it_is_removed() throws UserNotLoggedInException {
+        // Given: Bob has a trip and Alice is logged in
+        assignTripToUser(bob, parisTrip);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        // When: The friendship is written through the application, then removed again
+        friendshipService.addFriendship(alice.getId(), bob.getId());
+        List<Trip> whileFriends = tripService.getTripsByUser(bob);
+
+        friendshipService.removeFriendship(bob.getId(), alice.getId());
+        List<Trip> afterRemoval = tripService.getTripsByUser(bob);
+
+        // Then: Both directions were written and removed
+        assertThat(whileFriends).extracting(Trip::name).containsExactly("Trip to Paris");
+        assertThat(afterRemoval).isEmpty();
+    }
+
+    @Test
+    void should_page_and_stream_a_friends_trips_in_id_order() throws UserNotLoggedInException {
+        // Given: Bob, Alice's friend, has three trips
+        Trip tokyoTrip = tripRepository.save(new Trip("Tokyo Adventure"));
+        makeFriends(alice, bob);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(bob, londonTrip);
+        assignTripToUser(bob, tokyoTrip);
+
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        // When: Alice walks through Bob's trips two at a time, and streams them
+        TripPage firstPage = tripService.getTripPageByUser(bob, null, 2);
+        TripPage secondPage = tripService.getTripPageByUser(bob, firstPage.nextCursor(), 2);
+
+        List<Trip> streamed = new ArrayList<>();
+        tripService.streamTripsByUser(bob, streamed::add);
+
+        // Then: Pages cover all trips exactly once, and the stream matches them
+        assertThat(firstPage.trips()).extracting(Trip::name)
+                .containsExactly("Trip to Paris", "London Business Trip");
+        assertThat(secondPage.trips()).extracting(Trip::name).containsExactly("Tokyo Adventure");
+        assertThat(secondPage.nextCursor()).isNull();
+        assertThat(streamed).extracting(Trip::name)
+                .containsExactly("Trip to Paris", "London Business Trip", "Tokyo Adventure");
+    }
+
+    @Test
+    void should_change_trips_version_tag_when_trip_list_changes() throws UserNotLoggedInException {
+        // Given: Alice and Bob are friends
+        makeFriends(alice, bob);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+        String before = tripService.getTripsVersionTag(bob).orElseThrow();
+
+        // When: Bob gets a trip, and the trip is then renamed
+        assignTripToUser(bob, parisTrip);
+        String afterAssignment = tripService.getTripsVersionTag(bob).orElseThrow();
+        jdbcTemplate.update("UPDATE trip SET name = 'Trip to Paris and Lyon' WHERE id = ?", parisTrip.id());
+        String afterRename = tripService.getTripsVersionTag(bob).orElseThrow();
+
+        // Then: Every change produces a new tag, and strangers get neither tag nor trips
+        assertThat(afterAssignment).isNotEqualTo(before);
+        assertThat(afterRename).isNotEqualTo(afterAssignment);
+        assertThat(tripService.getTripsVersionTag(charlie)).contains("hidden");
+    }
+
+    @Test
+    void should_return_network_trips_nearest_users_first_within_requested_hops() throws UserNotLoggedInException {
+        // Given: Alice - Bob - Charlie - Diana, each of them with one trip
+        User diana = new User();
+        diana.setUsername("diana");
+        diana = userRepository.save(diana);
+        Trip tokyoTrip = tripRepository.save(new Trip("Tokyo Adventure"));
+        Trip beachTrip = tripRepository.save(new Trip("Beach Vacation"));
+
+        makeFriends(alice, bob);
+        makeFriends(bob, charlie);
+        makeFriends(charlie, diana);
+        assignTripToUser(alice, beachTrip);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(charlie, londonTrip);
+        assignTripToUser(diana, tokyoTrip);
+
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        // When
+        List<Trip> oneHop = tripService.getNetworkTrips(1, 10);
+        List<Trip> twoHops = tripService.getNetworkTrips(2, 10);
+        List<Trip> threeHopsLimited = tripService.getNetworkTrips(3, 2);
+
+        // Then: Alice's own trips are never included, and nearer users' trips come first
+        assertThat(oneHop).extracting(Trip::name).containsExactly("Trip to Paris");
+        assertThat(twoHops).extracting(Trip::name).containsExactly("Trip to Paris", "London Business Trip");
+        assertThat(threeHopsLimited).extracting(Trip::name).containsExactly("Trip to Paris", "London Business Trip");
+        assertThat(userRepository.findUserIdsWithinHops(alice.getId(), 3, 10))
+                .containsExactly(bob.getId(), charlie.getId(), diana.getId());
+    }
+
+    @Test
+    void should_collect_each_network_user_once_and_stop_at_max_users() {
+        // Given: Alice, Bob and Charlie are all friends with each other, and Charlie with Diana
+        User diana = new User();
+        diana.setUsername("diana");
+        diana = userRepository.save(diana);
+        makeFriends(alice, bob);
+        makeFriends(alice, charlie);
+        makeFriends(bob, charlie);
+        makeFriends(charlie, diana);
+
+        // When
+        long[] everyone = userRepository.findUserIdsWithinHops(alice.getId(), 3, 10);
+        long[] capped = userRepository.findUserIdsWithinHops(alice.getId(), 3, 2);
+
+        // Then: The triangle does not bring anyone back, and the cap keeps the nearest users
+        assertThat(everyone).containsExactly(bob.getId(), charlie.getId(), diana.getId());
+        assertThat(capped).containsExactly(bob.getId(), charlie.getId());
+    }
+
+    @Test
+    void should_page_through_friends_trip_feed_newest_first() throws UserNotLoggedInException {
+        // Given: Bob and Charlie are Alice's friends and share the London trip, Diana is a stranger
+        User diana = new User();
+        diana.setUsername("diana");
+        diana = userRepository.save(diana);
+        Trip tokyoTrip = tripRepository.save(new Trip("Tokyo Adventure"));
+        Trip beachTrip = tripRepository.save(new Trip("Beach Vacation"));
+        jdbcTemplate.update("UPDATE trip SET created_at = now() - interval '3 hours' WHERE id = ?", parisTrip.id());
+        jdbcTemplate.update("UPDATE trip SET created_at = now() - interval '1 hour' WHERE id = ?", londonTrip.id());
+        jdbcTemplate.update("UPDATE trip SET created_at = now() - interval '2 hours' WHERE id = ?", tokyoTrip.id());
+
+        makeFriends(alice, bob);
+        makeFriends(alice, charlie);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(bob, londonTrip);
+        assignTripToUser(charlie, londonTrip);
+        assignTripToUser(charlie, tokyoTrip);
+        assignTripToUser(diana, beachTrip);
+
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        // When: Alice reads her feed two entries at a time
+        FeedPage firstPage = tripService.getFeed(null, 2);
+        FeedPage secondPage = tripService.getFeed(firstPage.nextCursor(), 2);
+
+        // Then: Entries are newest first, the shared trip shows once per friend, nothing repeats
+        assertThat(firstPage.entries()).extracting(entry -> entry.trip().name() + "/" + entry.ownerId())
+                .containsExactly("London Business Trip/" + charlie.getId(), "London Business Trip/" + bob.getId());
+        assertThat(secondPage.entries()).extracting(entry -> entry.trip().name() + "/" + entry.ownerId())
+                .containsExactly("Tokyo Adventure/" + charlie.getId(), "Trip to Paris/" + bob.getId());
+        assertThat(secondPage.nextCursor()).isNull();
+    }
+
+    @Test
+    void should_keep_visible_trips_read_model_consistent_as_friendships_and_trips_change() throws UserNotLoggedInException {
+        // Given: Bob already has a trip when the read model is switched on
+        assignTripToUser(bob, parisTrip);
+        makeFriends(alice, bob);
+        visibleTripsReadModel.enable();
+        properties.setLookupMode(TripServiceProperties.LookupMode.READ_MODEL);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+
+        try {
+            // When: Bob gets another trip, Charlie befriends Alice, then Bob and Alice fall out
+            assignTripToUser(bob, londonTrip);
+            assignTripToUser(charlie, londonTrip);
+            friendshipService.addFriendship(alice.getId(), charlie.getId());
+            List<Trip> bobTripsWhileFriends = tripService.getTripsByUser(bob);
+            List<Trip> charlieTrips = tripService.getTripsByUser(charlie);
+            VisibleTripsReadModel.ConsistencyReport whileFriends = visibleTripsReadModel.check();
+
+            friendshipService.removeFriendship(alice.getId(), bob.getId());
+            jdbcTemplate.update("DELETE FROM user_trip WHERE user_id = ? AND trip_id = ?", charlie.getId(), londonTrip.id());
+            List<Trip> bobTripsAfterRemoval = tripService.getTripsByUser(bob);
+            List<Trip> charlieTripsAfterRemoval = tripService.getTripsByUser(charlie);
+            VisibleTripsReadModel.ConsistencyReport afterRemoval = visibleTripsReadModel.check();
+
+            // Then: The projection answers like the base tables at every step
+            assertThat(bobTripsWhileFriends).extracting(Trip::name)
+                    .containsExactlyInAnyOrder("Trip to Paris", "London Business Trip");
+            assertThat(charlieTrips).extracting(Trip::name).containsExactly("London Business Trip");
+            assertThat(whileFriends.isConsistent()).isTrue();
+            assertThat(bobTripsAfterRemoval).isEmpty();
+            assertThat(charlieTripsAfterRemoval).isEmpty();
+            assertThat(afterRemoval.isConsistent()).isTrue();
+        } finally {
+            properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+            visibleTripsReadModel.disable();
+        }
+    }
+
+    @Test
+    void should_report_and_repair_drift_in_visible_trips_read_model() {
+        // Given: An enabled read model with a row removed and a row added behind the triggers' back
+        makeFriends(alice, bob);
+        assignTripToUser(bob, parisTrip);
+        visibleTripsReadModel.enable();
+        try {
+            jdbcTemplate.update("DELETE FROM visible_trip");
+            jdbcTemplate.update("INSERT INTO visible_trip (viewer_id, owner_id, trip_id) VALUES (?, ?, ?)",
+                    charlie.getId(), bob.getId(), parisTrip.id());
+
+            // When
+            VisibleTripsReadModel.ConsistencyReport drifted = visibleTripsReadModel.check();
+            visibleTripsReadModel.rebuild();
+
+            // Then
+            assertThat(drifted).isEqualTo(new VisibleTripsReadModel.ConsistencyReport(1, 1));
+            assertThat(visibleTripsReadModel.check().isConsistent()).isTrue();
+        } finally {
+            visibleTripsReadModel.disable();
+        }
+    }
+
+    @Test
+    void should_return_trips_to_friends_only_when_friendship_check_and_trip_fetch_run_in_parallel() throws UserNotLoggedInException {
+        // Given
+        properties.setLookupMode(TripServiceProperties.LookupMode.PARALLEL);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+        makeFriends(alice, bob);
+        assignTripToUser(bob, parisTrip);
+        assignTripToUser(charlie, londonTrip);
+
+        try {
+            // When
+            List<Trip> bobTrips = tripService.getTripsByUser(bob);
+            List<Trip> charlieTrips = tripService.getTripsByUser(charlie);
+
+            // Then
+            assertThat(bobTrips).extracting(Trip::name).containsExactly("Trip to Paris");
+            assertThat(charlieTrips).isEmpty();
+            assertThat(meterRegistry.get("trips.parallel.saved").timer().count()).isPositive();
+        } finally {
+            properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+        }
+    }
+
+    @Test
+    void should_cancel_the_running_trip_fetch_when_the_parallel_friendship_check_fails() throws Exception {
+        // Given: Locks held elsewhere stall both the friendship check and the trip fetch
+        properties.setLookupMode(TripServiceProperties.LookupMode.PARALLEL);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+        assignTripToUser(charlie, parisTrip);
+        long cancelledBefore = parallelFetches("cancelled");
+
+        try (Connection tripLock = lock("user_trip"); Connection friendshipLock = lock("friendship")) {
+            try {
+                CompletableFuture<List<Trip>> lookup = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return tripService.getTripsByUser(charlie);
+                    } catch (UserNotLoggedInException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                await(() -> queriesWaitingForLocks() == 2);
+
+                // When: The friendship check goes ahead, while the trip fetch is still stalled
+                friendshipLock.rollback();
+
+                // Then: The lookup returns without the trips, and the trip query no longer waits
+                assertThat(lookup.get(10, TimeUnit.SECONDS)).isEmpty();
+                await(() -> queriesWaitingForLocks() == 0 && parallelFetches("cancelled") == cancelledBefore + 1);
+            } finally {
+                tripLock.rollback();
+            }
+        } finally {
+            properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+        }
+    }
+
+    @Test
+    void should_serve_more_concurrent_parallel_lookups_than_the_pool_has_connections() throws Exception {
+        // Given
+        properties.setLookupMode(TripServiceProperties.LookupMode.PARALLEL);
+        when(authenticationFacade.getCurrentUser())
+                .thenReturn(new CurrentUser(alice.getId(), alice.getUsername()));
+        makeFriends(alice, bob);
+        assignTripToUser(bob, parisTrip);
+        int lookups = 3 * dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            // When: All lookups start at once, each needing a connection for its check and one for its fetch
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<Trip>>> results = new ArrayList<>();
+            for (int i = 0; i < lookups; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return tripService.getTripsByUser(bob);
+                }));
+            }
+            start.countDown();
+
+            // Then: Every lookup finishes well before a connection request would time out
+            for (Future<List<Trip>> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).extracting(Trip::name).containsExactly("Trip to Paris");
+            }
+        } finally {
+            properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+        }
+    }
+
+    private Connection lock(String table) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+        }
+        return connection;
+    }
+
+    private long parallelFetches(String outcome) {
+        Timer fetches = meterRegistry.find("trips.parallel.fetches").tag("outcome", outcome).timer();
+        return fetches == null ? 0 : fetches.count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private int queriesWaitingForLocks() {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock' AND datname = current_database()",
+                Integer.class);
+    }
 }
@@ -0,0 +1,162 @@
+package kata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares trip lookups on a Tomcat-sized platform thread pool with one virtual thread per request.
+ * Run with {@code ./gradlew loadTest}; results are printed, pinned virtual threads are traced.
+ */
+@Tag("load")
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest(properties = "spring.datasource.hikari.maximum-pool-size=50")
+@Testcontainers
+class TripServiceLoadTest {
+
+    private static final long VIEWER_ID = 1_000L;
+    private static final int FRIENDS = 100;
+    private static final int TRIPS_PER_FRIEND = 5;
+    private static final int TOMCAT_DEFAULT_MAX_THREADS = 200;
+    private static final double MIN_VIRTUAL_TO_PLATFORM_THROUGHPUT = 0.8;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class FixedViewerConfiguration {
+
+        @Bean
+        @Primary
+        AuthenticationFacade fixedViewer() {
+            return () -> new CurrentUser(VIEWER_ID, "viewer");
+        }
+    }
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, 'viewer')", VIEWER_ID);
+        for (long friend = VIEWER_ID + 1; friend <= VIEWER_ID + FRIENDS; friend++) {
+            jdbcTemplate.update("INSERT INTO user_table (id, username) VALUES (?, ?)", friend, "friend" + friend);
+            jdbcTemplate.update("INSERT INTO user_friends (user_id, friend_id) VALUES (?, ?), (?, ?)",
+                    VIEWER_ID, friend, friend, VIEWER_ID);
+            for (int trip = 0; trip < TRIPS_PER_FRIEND; trip++) {
+                Long tripId = jdbcTemplate.queryForObject(
+                        "INSERT INTO trip (name) VALUES (?) RETURNING id", Long.class, "trip " + friend + "/" + trip);
+                jdbcTemplate.update("INSERT INTO user_trip (user_id, trip_id) VALUES (?, ?)", friend, tripId);
+            }
+        }
+    }
+
+    @ParameterizedTest(name = "{0} concurrent requests")
+    @ValueSource(ints = {1_000, 10_000})
+    void virtual_threads_should_serve_concurrent_lookups_at_least_as_well_as_platform_threads(int concurrentRequests)
+            throws InterruptedException {
+        run(Executors.newFixedThreadPool(TOMCAT_DEFAULT_MAX_THREADS), 500);
+        run(Executors.newVirtualThreadPerTaskExecutor(), 500);
+
+        LoadResult platform = run(Executors.newFixedThreadPool(TOMCAT_DEFAULT_MAX_THREADS), concurrentRequests);
+        LoadResult virtual = run(Executors.newVirtualThreadPerTaskExecutor(), concurrentRequests);
+
+        System.out.printf("%,d concurrent requests%n", concurrentRequests);
+        System.out.println("  platform (" + TOMCAT_DEFAULT_MAX_THREADS + " threads): " + platform);
+        System.out.println("  virtual (thread per request): " + virtual);
+
+        assertThat(platform.failures()).isZero();
+        assertThat(virtual.failures()).isZero();
+        // Both runs share one 50-connection pool, so virtual threads should at least keep up; the
+        // margin absorbs run-to-run noise on shared CI machines
+        assertThat(virtual.throughputPerSecond()).isGreaterThanOrEqualTo(platform.throughputPerSecond() * MIN_VIRTUAL_TO_PLATFORM_THROUGHPUT);
+    }
+
+    private LoadResult run(ExecutorService executor, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(requests);
+
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            User owner = new User();
+            owner.setId(VIEWER_ID + 1 + (i % FRIENDS));
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    long began = System.nanoTime();
+                    if (tripService.getTripsByUser(owner).size() != TRIPS_PER_FRIEND) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[request] = System.nanoTime() - began;
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        assertThat(done.await(5, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - began;
+        executor.shutdown();
+
+        return new LoadResult(requests, elapsed, latencies, failures.get());
+    }
+
+    private record LoadResult(int requests, long elapsedNanos, long[] latencies, int failures) {
+
+        double throughputPerSecond() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        double percentileMillis(double percentile) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(percentile * sorted.length) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,.0f req/s, p50 %.1f ms, p99 %.1f ms, %d failures",
+                    throughputPerSecond(), percentileMillis(0.50), percentileMillis(0.99), failures);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package kata;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Grows a synthetic data set step by step and reports p50/p99 latency of the trip lookups at each
+ * size. Run with {@code ./gradlew loadTest}; the largest step loads one million users and about
+ * ten million friendship rows, so give Docker a few GB of memory.
+ */
+@Tag("load")
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+@SpringBootTest
+@Testcontainers
+class TripServiceScaleTest {
+
+    static final int[] USER_COUNTS = {10_000, 100_000, 1_000_000};
+    static final int AVERAGE_TRIPS_PER_USER = 5;
+    static final int AVERAGE_FRIENDS = 20;
+    static final int SAMPLES = 2_000;
+    /**
+     * The visible_trip projection holds friends x trips rows; past this size it outgrows the container.
+     */
+    static final int READ_MODEL_MAX_USERS = 100_000;
+    static final int NETWORK_SAMPLES = 200;
+    static final int[] NETWORK_DEPTHS = {2, 3};
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("testdb")
+            .withUsername("test")
+            .withPassword("test")
+            .withSharedMemorySize(1024L * 1024 * 1024);
+
+    static final AtomicLong viewerId = new AtomicLong();
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class SwitchableViewerConfiguration {
+
+        @Bean
+        @Primary
+        AuthenticationFacade switchableViewer() {
+            return () -> new CurrentUser(viewerId.get(), "viewer");
+        }
+    }
+
+    @Autowired
+    private TripService tripService;
+
+    @Autowired
+    private TripServiceProperties properties;
+
+    @Autowired
+    private VisibleTripsReadModel visibleTripsReadModel;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void report_lookup_latency_as_data_grows() throws Exception {
+        jdbcTemplate.execute("DELETE FROM user_trip");
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.execute("DELETE FROM trip");
+        jdbcTemplate.execute("DELETE FROM user_table");
+
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(dataSource, 42);
+        Random random = new Random(7);
+        int loadedUsers = 0;
+        visibleTripsReadModel.enable();
+
+        for (int userCount : USER_COUNTS) {
+            if (userCount > READ_MODEL_MAX_USERS && visibleTripsReadModel.isEnabled()) {
+                visibleTripsReadModel.disable();
+            }
+            SyntheticDataGenerator.Result loaded = generator.generate(
+                    userCount - loadedUsers, AVERAGE_TRIPS_PER_USER, AVERAGE_FRIENDS);
+            loadedUsers = userCount;
+            System.out.printf("%,d users: loaded %,d users, %,d trips, %,d friendships in %,d ms%n",
+                    userCount, loaded.users(), loaded.trips(), loaded.friendships(), loaded.elapsedMillis());
+
+            List<long[]> friendPairs = jdbcTemplate.query(
+                    "SELECT user_low, user_high FROM friendship TABLESAMPLE SYSTEM (1) LIMIT " + SAMPLES,
+                    (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)});
+            List<long[]> strangerPairs = new ArrayList<>();
+            long maxUserId = jdbcTemplate.queryForObject("SELECT max(id) FROM user_table", Long.class);
+            long minUserId = jdbcTemplate.queryForObject("SELECT min(id) FROM user_table", Long.class);
+            for (int i = 0; i < SAMPLES; i++) {
+                strangerPairs.add(new long[]{
+                        minUserId + random.nextLong(maxUserId - minUserId + 1),
+                        minUserId + random.nextLong(maxUserId - minUserId + 1)});
+            }
+
+            for (TripServiceProperties.LookupMode mode : TripServiceProperties.LookupMode.values()) {
+                if (mode == TripServiceProperties.LookupMode.READ_MODEL && !visibleTripsReadModel.isEnabled()) {
+                    continue;
+                }
+                properties.setLookupMode(mode);
+                System.out.printf("  %-13s friends %s, strangers %s%n", mode,
+                        measure(friendPairs), measure(strangerPairs));
+            }
+
+            reportFriendshipStorage(friendPairs);
+
+            CompressedFriendshipGraph graph = loadGraph();
+            List<long[]> networkOrigins = friendPairs.subList(0, Math.min(NETWORK_SAMPLES, friendPairs.size()));
+            int maxUsers = properties.getNetwork().getMaxUsers();
+            for (int depth : NETWORK_DEPTHS) {
+                System.out.printf("  network depth %d: recursive CTE %s, bitset BFS %s%n", depth,
+                        measureNetwork(networkOrigins, origin -> userRepository.findUserIdsWithinHops(origin, depth, maxUsers)),
+                        measureNetwork(networkOrigins, origin -> graph.usersWithin(origin, depth, maxUsers)));
+            }
+        }
+        properties.setLookupMode(TripServiceProperties.LookupMode.FRIEND_LIST);
+        visibleTripsReadModel.disable();
+
+        assertThat(loadedUsers).isEqualTo(USER_COUNTS[USER_COUNTS.length - 1]);
+    }
+
+    /**
+     * Compares the canonical friendship table with the previous layout, one row per direction with
+     * its primary key and two single-column indexes, rebuilt from the same data.
+     */
+    private void reportFriendshipStorage(List<long[]> pairs) {
+        jdbcTemplate.execute("CREATE TABLE legacy_user_friends AS SELECT user_id, friend_id FROM user_friends");
+        jdbcTemplate.execute("ALTER TABLE legacy_user_friends ADD PRIMARY KEY (user_id, friend_id)");
+        jdbcTemplate.execute("CREATE INDEX ON legacy_user_friends (user_id)");
+        jdbcTemplate.execute("CREATE INDEX ON legacy_user_friends (friend_id)");
+        jdbcTemplate.execute("ANALYZE legacy_user_friends");
+        try {
+            System.out.printf("  friendship storage: one row per direction %s, canonical %s%n",
+                    relationSizes("legacy_user_friends"), relationSizes("friendship"));
+            System.out.printf("  friend id lookup:   one row per direction %s, canonical %s%n",
+                    measureLookups(pairs, userId -> jdbcTemplate.queryForList(
+                            "SELECT friend_id FROM legacy_user_friends WHERE user_id = ? ORDER BY friend_id", Long.class, userId)),
+                    measureLookups(pairs, userRepository::findFriendIdsByUserId));
+        } finally {
+            jdbcTemplate.execute("DROP TABLE legacy_user_friends");
+        }
+    }
+
+    private String relationSizes(String table) {
+        return jdbcTemplate.queryForObject(
+                "SELECT 'table ' || pg_size_pretty(pg_table_size(?::regclass)) || ', indexes ' || pg_size_pretty(pg_indexes_size(?::regclass))",
+                String.class, table, table);
+    }
+
+    private static String measureLookups(List<long[]> pairs, LongFunction<?> lookup) {
+        long[] latencies = new long[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            long began = System.nanoTime();
+            lookup.apply(pairs.get(i)[0]);
+            latencies[i] = System.nanoTime() - began;
+        }
+        return percentiles(latencies);
+    }
+
+    private CompressedFriendshipGraph loadGraph() {
+        CompressedFriendshipGraph.Builder builder = CompressedFriendshipGraph.builder();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> userRepository.forEachFriendship(builder::add));
+        return builder.build();
+    }
+
+    private static String measureNetwork(List<long[]> origins, LongFunction<long[]> traversal) {
+        long[] latencies = new long[origins.size()];
+        long reached = 0;
+        for (int i = 0; i < origins.size(); i++) {
+            long began = System.nanoTime();
+            reached += traversal.apply(origins.get(i)[0]).length;
+            latencies[i] = System.nanoTime() - began;
+        }
+        return percentiles(latencies) + String.format(", %,d users on average", reached / Math.max(1, origins.size()));
+    }
+
+    private String measure(List<long[]> pairs) throws UserNotLoggedInException {
+        long[] latencies = new long[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            viewerId.set(pairs.get(i)[0]);
+            User owner = new User();
+            owner.setId(pairs.get(i)[1]);
+            long began = System.nanoTime();
+            tripService.getTripsByUser(owner);
+            latencies[i] = System.nanoTime() - began;
+        }
+        return percentiles(latencies);
+    }
+
+    private static String percentiles(long[] latencies) {
+        Arrays.sort(latencies);
+        return String.format("p50 %.2f ms, p99 %.2f ms",
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1e6);
+    }
+}
@@ -49,7 +49,7 @@ class TripServiceSimpleIntegrationTest {
     void setUp() {
         // Clear all data using SQL 
         jdbcTemplate.execute("DELETE FROM user_trip");
-        jdbcTemplate.execute("DELETE FROM user_friends");
+        jdbcTemplate.execute("DELETE FROM friendship");
         jdbcTemplate.execute("DELETE FROM trip");
         jdbcTemplate.execute("DELETE FROM user_table");
 
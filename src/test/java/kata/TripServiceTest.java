@@ -1,16 +1,27 @@
 package kata;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -25,7 +36,23 @@ class TripServiceTest {
     @Mock
     private UserService userService;
 
-    @InjectMocks
+    @Mock
+    private NetworkTraversal networkTraversal;
+
+    @Mock
+    private ParallelTripLookup parallelTripLookup;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private TripServiceProperties properties;
+
+    private Set<Long> filteredOutUserIds;
+
+    private AtomicInteger filterProbes;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private TripService tripService;
 
     private User loggedInUser;
@@ -36,6 +63,19 @@ class TripServiceTest {
 
     @BeforeEach
     void setUp() {
+        properties = new TripServiceProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        TripMetrics metrics = new TripMetrics(meterRegistry);
+        filteredOutUserIds = new HashSet<>();
+        filterProbes = new AtomicInteger();
+        FriendshipFilter friendshipFilter = (userId, otherUserId) -> {
+            filterProbes.incrementAndGet();
+            return !filteredOutUserIds.contains(otherUserId);
+        };
+        tripService = new TripService(tripRepository, tripRepository::findTripsByUser, userRepository, userService,
+                new RepositoryFriendshipLookup(userRepository, metrics), friendshipFilter, networkTraversal,
+                parallelTripLookup, transactionManager, properties, metrics);
+
         loggedInUser = new User();
         loggedInUser.setId(1L);
         loggedInUser.setUsername("loggedUser");
@@ -55,8 +95,8 @@ class TripServiceTest {
     @Test
     void getTripsByUser_whenUsersAreFriends_shouldReturnTrips() throws UserNotLoggedInException {
         when(userService.getCurrentUser()).thenReturn(loggedInUser);
-        when(userRepository.findFriendsByUserId(loggedInUser.getId()))
-                .thenReturn(Arrays.asList(targetUser, friendUser));
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(targetUser, friendUser));
         when(tripRepository.findTripsByUser(targetUser.getId()))
                 .thenReturn(Arrays.asList(trip1, trip2));
 
@@ -68,8 +108,8 @@ class TripServiceTest {
     @Test
     void getTripsByUser_whenUsersAreNotFriends_shouldReturnEmptyList() throws UserNotLoggedInException {
         when(userService.getCurrentUser()).thenReturn(loggedInUser);
-        when(userRepository.findFriendsByUserId(loggedInUser.getId()))
-                .thenReturn(Arrays.asList(friendUser));
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(friendUser));
 
         List<Trip> result = tripService.getTripsByUser(targetUser);
 
@@ -79,8 +119,8 @@ class TripServiceTest {
     @Test
     void getTripsByUser_whenUserHasNoFriends_shouldReturnEmptyList() throws UserNotLoggedInException {
         when(userService.getCurrentUser()).thenReturn(loggedInUser);
-        when(userRepository.findFriendsByUserId(loggedInUser.getId()))
-                .thenReturn(Arrays.asList());
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf());
 
         List<Trip> result = tripService.getTripsByUser(targetUser);
 
@@ -90,8 +130,8 @@ class TripServiceTest {
     @Test
     void getTripsByUser_whenFriendHasNoTrips_shouldReturnEmptyList() throws UserNotLoggedInException {
         when(userService.getCurrentUser()).thenReturn(loggedInUser);
-        when(userRepository.findFriendsByUserId(loggedInUser.getId()))
-                .thenReturn(Arrays.asList(targetUser));
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(targetUser));
         when(tripRepository.findTripsByUser(targetUser.getId()))
                 .thenReturn(Arrays.asList());
 
@@ -103,8 +143,8 @@ class TripServiceTest {
     @Test
     void getTripsByUser_whenRequestingOwnTrips_shouldReturnTrips() throws UserNotLoggedInException {
         when(userService.getCurrentUser()).thenReturn(loggedInUser);
-        when(userRepository.findFriendsByUserId(loggedInUser.getId()))
-                .thenReturn(Arrays.asList(loggedInUser));
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(loggedInUser));
         when(tripRepository.findTripsByUser(loggedInUser.getId()))
                 .thenReturn(Arrays.asList(trip1));
 
@@ -112,4 +152,207 @@ class TripServiceTest {
 
         assertThat(result).containsExactly(trip1);
     }
-}
\ No newline at end of file
+
+    @Test
+    void getTripsByUser_inSingleQueryMode_shouldAskRepositoryForTripsVisibleToLoggedUser() throws UserNotLoggedInException {
+        properties.setLookupMode(TripServiceProperties.LookupMode.SINGLE_QUERY);
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(tripRepository.findTripsByUserVisibleTo(targetUser.getId(), loggedInUser.getId()))
+                .thenReturn(Arrays.asList(trip1, trip2));
+
+        List<Trip> result = tripService.getTripsByUser(targetUser);
+
+        assertThat(result).containsExactly(trip1, trip2);
+        verifyNoInteractions(userRepository);
+        assertThat(meterRegistry.get("trips.friendship.checks").tag("outcome", "friend").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void getTripsByUser_inReadModelMode_shouldReadTripsFromProjection() throws UserNotLoggedInException {
+        properties.setLookupMode(TripServiceProperties.LookupMode.READ_MODEL);
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(tripRepository.findTripsByUserFromReadModel(targetUser.getId(), loggedInUser.getId()))
+                .thenReturn(Arrays.asList(trip1, trip2));
+
+        List<Trip> result = tripService.getTripsByUser(targetUser);
+
+        assertThat(result).containsExactly(trip1, trip2);
+        verifyNoInteractions(userRepository);
+        assertThat(meterRegistry.get("trips.friendship.checks").tag("outcome", "friend").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void getTripsByUser_whenFilterRulesOutFriendship_shouldNotQueryInAnyMode() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        filteredOutUserIds.add(targetUser.getId());
+
+        for (TripServiceProperties.LookupMode mode : TripServiceProperties.LookupMode.values()) {
+            properties.setLookupMode(mode);
+            assertThat(tripService.getTripsByUser(targetUser)).isEmpty();
+        }
+
+        verifyNoInteractions(userRepository, tripRepository);
+        assertThat(meterRegistry.get("trips.friendship.checks").tag("outcome", "not_friend").counter().count())
+                .isEqualTo(TripServiceProperties.LookupMode.values().length);
+    }
+
+    @Test
+    void getTripsByUser_inParallelMode_shouldAskTheFilterOnce() throws UserNotLoggedInException {
+        properties.setLookupMode(TripServiceProperties.LookupMode.PARALLEL);
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId())).thenReturn(idsOf(targetUser));
+        when(parallelTripLookup.tripsIfFriends(eq(targetUser.getId()), any()))
+                .thenAnswer(invocation -> invocation.<BooleanSupplier>getArgument(1).getAsBoolean() ? List.of(trip1) : List.of());
+
+        assertThat(tripService.getTripsByUser(targetUser)).containsExactly(trip1);
+
+        assertThat(filterProbes).hasValue(1);
+    }
+
+    @Test
+    void getTripsByUsers_shouldReturnTripsOnlyForFriendsAndEmptyListsForEveryoneElse() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsAmong(loggedInUser.getId(), Set.of(targetUser.getId(), friendUser.getId())))
+                .thenReturn(Set.of(friendUser.getId()));
+        when(tripRepository.findTripsByUsers(Set.of(friendUser.getId())))
+                .thenReturn(Map.of(friendUser.getId(), Arrays.asList(trip1)));
+
+        Map<Long, List<Trip>> result = tripService.getTripsByUsers(Arrays.asList(targetUser, friendUser));
+
+        assertThat(result).containsOnlyKeys(targetUser.getId(), friendUser.getId());
+        assertThat(result.get(targetUser.getId())).isEmpty();
+        assertThat(result.get(friendUser.getId())).containsExactly(trip1);
+    }
+
+    @Test
+    void getTripsByUsers_whenNoneAreFriends_shouldNotQueryTrips() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsAmong(loggedInUser.getId(), Set.of(targetUser.getId())))
+                .thenReturn(Set.of());
+
+        Map<Long, List<Trip>> result = tripService.getTripsByUsers(Arrays.asList(targetUser));
+
+        assertThat(result.get(targetUser.getId())).isEmpty();
+        verifyNoInteractions(tripRepository);
+    }
+
+    @Test
+    void getTripPageByUser_whenMoreTripsExist_shouldReturnCursorOfLastTripOnPage() throws UserNotLoggedInException {
+        Trip trip3 = new Trip(3L, "Trip to Rome");
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(targetUser));
+        when(tripRepository.findTripsByUserAfter(targetUser.getId(), 0L, 3))
+                .thenReturn(Arrays.asList(trip1, trip2, trip3));
+
+        TripPage page = tripService.getTripPageByUser(targetUser, null, 2);
+
+        assertThat(page.trips()).containsExactly(trip1, trip2);
+        assertThat(page.nextCursor()).isEqualTo(trip2.id());
+    }
+
+    @Test
+    void getTripPageByUser_onLastPage_shouldReturnNoCursor() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(targetUser));
+        when(tripRepository.findTripsByUserAfter(targetUser.getId(), trip1.id(), 3))
+                .thenReturn(Arrays.asList(trip2));
+
+        TripPage page = tripService.getTripPageByUser(targetUser, trip1.id(), 2);
+
+        assertThat(page.trips()).containsExactly(trip2);
+        assertThat(page.nextCursor()).isNull();
+    }
+
+    @Test
+    void getTripPageByUser_whenLimitIsBelowOne_shouldReturnEmptyPageWithoutQuerying() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+
+        assertThat(tripService.getTripPageByUser(targetUser, null, 0)).isEqualTo(TripPage.empty());
+        assertThat(tripService.getTripPageByUser(targetUser, null, -1)).isEqualTo(TripPage.empty());
+
+        verifyNoInteractions(tripRepository);
+    }
+
+    @Test
+    void streamTripsByUser_whenUsersAreNotFriends_shouldNotOpenStream() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(friendUser));
+
+        List<Trip> streamed = new ArrayList<>();
+        tripService.streamTripsByUser(targetUser, streamed::add);
+
+        assertThat(streamed).isEmpty();
+        verifyNoInteractions(tripRepository);
+    }
+
+    @Test
+    void getNetworkTrips_shouldCapDepthAndTripCountAtConfiguredMaximum() throws UserNotLoggedInException {
+        properties.getNetwork().setMaxDepth(2);
+        properties.getNetwork().setMaxTrips(10);
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        long[] network = {targetUser.getId(), friendUser.getId()};
+        when(networkTraversal.usersWithin(loggedInUser.getId(), 2, properties.getNetwork().getMaxUsers()))
+                .thenReturn(network);
+        when(tripRepository.findTripsByUsersInOrder(network, 10)).thenReturn(Arrays.asList(trip1, trip2));
+
+        List<Trip> result = tripService.getNetworkTrips(5, 1_000);
+
+        assertThat(result).containsExactly(trip1, trip2);
+    }
+
+    @Test
+    void getNetworkTrips_withoutHops_shouldNotTraverse() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+
+        assertThat(tripService.getNetworkTrips(0, 10)).isEmpty();
+        verifyNoInteractions(networkTraversal, tripRepository);
+    }
+
+    @Test
+    void getFeed_forHighDegreeUser_shouldMergeChunkPagesNewestFirst() throws UserNotLoggedInException {
+        properties.getFeed().setFriendChunkSize(2);
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId())).thenReturn(new long[]{2L, 3L, 4L});
+        LocalDateTime now = LocalDateTime.of(2024, 5, 1, 12, 0);
+        FeedEntry newest = new FeedEntry(4L, trip2, now);
+        FeedEntry middle = new FeedEntry(2L, trip1, now.minusHours(1));
+        FeedEntry oldest = new FeedEntry(3L, trip1, now.minusHours(2));
+        when(tripRepository.findFeedEntries(new long[]{2L, 3L}, null, 3)).thenReturn(Arrays.asList(middle, oldest));
+        when(tripRepository.findFeedEntries(new long[]{4L}, null, 3)).thenReturn(Arrays.asList(newest));
+
+        FeedPage page = tripService.getFeed(null, 2);
+
+        assertThat(page.entries()).containsExactly(newest, middle);
+        assertThat(page.nextCursor()).isEqualTo(new FeedCursor(now.minusHours(1), trip1.id(), 2L));
+    }
+
+    @Test
+    void getFeed_withoutFriends_shouldNotQueryTrips() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId())).thenReturn(new long[0]);
+
+        assertThat(tripService.getFeed(null, 10)).isEqualTo(FeedPage.empty());
+        verifyNoInteractions(tripRepository);
+    }
+
+    @Test
+    void getTripsByUser_shouldRecordFriendListSizeAndCheckOutcome() throws UserNotLoggedInException {
+        when(userService.getCurrentUser()).thenReturn(loggedInUser);
+        when(userRepository.findFriendIdsByUserId(loggedInUser.getId()))
+                .thenReturn(idsOf(targetUser, friendUser));
+
+        tripService.getTripsByUser(targetUser);
+        tripService.getTripsByUser(loggedInUser);
+
+        assertThat(meterRegistry.get("trips.friend.list.size").summary().totalAmount()).isEqualTo(4);
+        assertThat(meterRegistry.get("trips.friendship.checks").tag("outcome", "friend").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("trips.friendship.checks").tag("outcome", "not_friend").counter().count()).isEqualTo(1);
+    }
+
+    private static long[] idsOf(User... users) {
+        return Arrays.stream(users).mapToLong(User::getId).toArray();
+    }
+}
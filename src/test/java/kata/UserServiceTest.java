@@ -0,0 +1,99 @@
+package kata;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private AuthenticationFacade authenticationFacade;
+
+    private TripServiceProperties properties;
+
+    private UserService userService;
+
+    private User alice;
+
+    @BeforeEach
+    void setUp() {
+        properties = new TripServiceProperties();
+        userService = new UserService(userRepository, authenticationFacade, properties);
+
+        alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void getCurrentUser_byDefault_shouldReloadUserOnEveryCall() throws UserNotLoggedInException {
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(1L, "alice"));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(alice));
+
+        userService.getCurrentUser();
+        userService.getCurrentUser();
+
+        verify(userRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    void getCurrentUser_whenTrustingPrincipal_shouldNotQueryUserTable() throws UserNotLoggedInException {
+        properties.getCurrentUser().setTrustPrincipal(true);
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(1L, "alice"));
+
+        User user = userService.getCurrentUser();
+
+        assertThat(user.getId()).isEqualTo(1L);
+        assertThat(user.getUsername()).isEqualTo("alice");
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void getCurrentUser_whenTrustingPrincipalWithoutAuthentication_shouldThrow() {
+        properties.getCurrentUser().setTrustPrincipal(true);
+        when(authenticationFacade.getCurrentUser()).thenThrow(new IllegalStateException("No authenticated user"));
+
+        assertThatThrownBy(() -> userService.getCurrentUser())
+                .isInstanceOf(UserNotLoggedInException.class);
+    }
+
+    @Test
+    void getCurrentUser_whenMemoizingPerRequest_shouldReloadUserOncePerRequest() throws UserNotLoggedInException {
+        properties.getCurrentUser().setMemoizePerRequest(true);
+        when(authenticationFacade.getCurrentUser()).thenReturn(new CurrentUser(1L, "alice"));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(alice));
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        userService.getCurrentUser();
+        userService.getCurrentUser();
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        userService.getCurrentUser();
+
+        verify(userRepository, times(2)).findById(1L);
+    }
+}